@@ -0,0 +1,30 @@
+/*
+ * JMH benchmarks for the gateway's request/response hot path. Not part of the module - nothing here is
+ * packaged into the .modl (see projectScopes in the root build).
+ *
+ * Run with: ./gradlew :benchmarks:jmh [-Pjmh.includes=<regex>]
+ */
+plugins {
+    java
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+java {
+    toolchain { languageVersion.set(JavaLanguageVersion.of(17)) }
+}
+
+dependencies {
+    jmh(projects.gateway)
+    jmh(projects.common)
+    jmh("com.inductiveautomation.ignitionsdk:ignition-common:${rootProject.extra["sdk_version"]}")
+    jmh("com.inductiveautomation.ignitionsdk:gateway-api:${rootProject.extra["sdk_version"]}")
+    jmh("org.mockito:mockito-core:5.11.0")
+}
+
+jmh {
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    resultFormat.set("JSON")
+    (project.findProperty("jmh.includes") as String?)?.let { includes.add(it) }
+}
@@ -0,0 +1,97 @@
+package com.kyvislabs.api.client.benchmarks;
+
+import com.codahale.metrics.MetricRegistry;
+import com.inductiveautomation.ignition.gateway.model.GatewayContext;
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.API;
+import com.kyvislabs.api.client.gateway.api.AuthType;
+import com.kyvislabs.api.client.gateway.api.Headers;
+import com.kyvislabs.api.client.gateway.api.Variables;
+import com.kyvislabs.api.client.gateway.api.functions.Function;
+import com.kyvislabs.api.client.gateway.records.APIResource;
+import net.dongliu.requests.executor.HttpExecutor;
+import net.dongliu.requests.RequestBuilder;
+import net.dongliu.requests.Requests;
+
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Shared fixtures. An API normally comes from a gateway resource with the whole GatewayContext behind it;
+ * here it's a mock wired to the real collaborators the hot path uses (variables, headers, no-auth, the
+ * request builder) and to an InMemoryTagManager.
+ */
+final class Benchmarks {
+    private Benchmarks() {
+    }
+
+    static API newApi(String name, InMemoryTagManager tagManager) throws APIException {
+        return newApi(name, tagManager, null);
+    }
+
+    /**
+     * @param httpExecutor executor set on every request builder, or null for the default url connection one
+     */
+    static API newApi(String name, InMemoryTagManager tagManager, HttpExecutor httpExecutor) throws APIException {
+        API api = mock(API.class);
+        when(api.getName()).thenReturn(name);
+        when(api.getTagManager()).thenReturn(tagManager);
+        when(api.getResource()).thenReturn(mock(APIResource.class));
+        GatewayContext context = mock(GatewayContext.class, RETURNS_DEEP_STUBS);
+        when(context.getMetricRegistry()).thenReturn(new MetricRegistry());
+        when(api.getGatewayContext()).thenReturn(context);
+        when(api.getExecutionMode()).thenReturn(API.ExecutionMode.BLOCKING);
+
+        Variables variables = new Variables(api);
+        when(api.getVariables()).thenReturn(variables);
+
+        Headers headers = new Headers(api);
+        headers.parse(1, Map.of());
+        when(api.getHeaders()).thenReturn(headers);
+
+        AuthType authType = new AuthType(api);
+        authType.parse(1, Map.of("authType", Map.of("type", "none")));
+        when(api.getAuthType()).thenReturn(authType);
+
+        when(api.getRequestBuilder(anyString(), any())).thenAnswer(invocation -> {
+            Function.Method method = invocation.getArgument(1);
+            RequestBuilder builder = Requests.newRequest(method.name(), (String) invocation.getArgument(0));
+            if (httpExecutor != null) {
+                builder.executor(httpExecutor);
+            }
+            return builder;
+        });
+        return api;
+    }
+
+    /**
+     * A fleet telemetry style response: an array of vehicles, each a few levels deep with a mix of value
+     * types - roughly 20 leaves per vehicle.
+     */
+    static String fleetPayload(int vehicles) {
+        StringBuilder builder = new StringBuilder(vehicles * 512);
+        builder.append("{\"fleet\":\"bench\",\"generated\":\"2024-01-01T00:00:00Z\",\"count\":").append(vehicles).append(",\"vehicles\":[");
+        for (int i = 0; i < vehicles; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":\"veh-").append(i).append('"')
+                    .append(",\"name\":\"Vehicle ").append(i).append('"')
+                    .append(",\"status\":\"").append(i % 3 == 0 ? "idle" : "moving").append('"')
+                    .append(",\"online\":").append(i % 7 != 0)
+                    .append(",\"odometer\":").append(100000L + i * 37L)
+                    .append(",\"location\":{\"lat\":").append(40 + i * 0.001).append(",\"lon\":").append(-75 - i * 0.001)
+                    .append(",\"heading\":").append(i % 360).append(",\"speed\":").append((i % 90) * 1.5).append('}')
+                    .append(",\"engine\":{\"rpm\":").append(800 + i % 3000).append(",\"coolantTemp\":").append(85.5 + i % 10)
+                    .append(",\"oilPressure\":").append(40 + i % 20).append(",\"fault\":null}")
+                    .append(",\"fuel\":{\"level\":").append(i % 100).append(",\"capacity\":120,\"type\":\"diesel\"}")
+                    .append(",\"tires\":[").append(32 + i % 3).append(',').append(33).append(',').append(32).append(',').append(31 + i % 2).append(']')
+                    .append(",\"driver\":{\"id\":\"drv-").append(i % 50).append("\",\"name\":\"Driver ").append(i % 50).append("\"}}");
+        }
+        builder.append("]}");
+        return builder.toString();
+    }
+}
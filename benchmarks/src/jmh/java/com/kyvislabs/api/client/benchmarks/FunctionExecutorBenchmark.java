@@ -0,0 +1,88 @@
+package com.kyvislabs.api.client.benchmarks;
+
+import com.kyvislabs.api.client.gateway.api.API;
+import com.kyvislabs.api.client.gateway.api.functions.Function;
+import com.kyvislabs.api.client.gateway.managers.ExecutorManager;
+import com.sun.net.httpserver.HttpServer;
+import net.dongliu.requests.executor.HttpClientExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * A whole function run - request setup, the HTTP round trip to a local server, reading the body, the
+ * tag action and the status tags - through both the blocking and the async pipeline, with either HTTP
+ * client.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FunctionExecutorBenchmark {
+    @Param({"urlconnection", "httpclient"})
+    public String httpClient;
+
+    @Param({"10", "500"})
+    public int vehicles;
+
+    private HttpServer server;
+    private ExecutorManager executorManager;
+    private HttpClientExecutor httpExecutor;
+    private Function function;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] payload = Benchmarks.fleetPayload(vehicles).getBytes(StandardCharsets.UTF_8);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/fleet", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, payload.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(payload);
+            }
+        });
+        server.setExecutor(Executors.newFixedThreadPool(4));
+        server.start();
+
+        executorManager = new ExecutorManager();
+        executorManager.startup();
+        httpExecutor = httpClient.equals("httpclient") ? new HttpClientExecutor(false) : null;
+
+        API api = Benchmarks.newApi("Bench", new InMemoryTagManager(), httpExecutor);
+        when(api.getExecutorManager()).thenReturn(executorManager);
+
+        function = new Function(api, "Fleet");
+        function.parse(1, Map.of(
+                "url", "http://127.0.0.1:" + server.getAddress().getPort() + "/fleet",
+                "method", "get",
+                "responseType", "json",
+                "actions", List.of(Map.of("action", "tag", "type", "jsonexpand", "path", "Fleet"))));
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop(0);
+        executorManager.shutdown();
+        if (httpExecutor != null) {
+            httpExecutor.close();
+        }
+    }
+
+    @Benchmark
+    public Integer blocking() {
+        return function.callBlocking(null);
+    }
+
+    @Benchmark
+    public Integer async() {
+        return function.executeAsync(null).join();
+    }
+}
@@ -0,0 +1,62 @@
+package com.kyvislabs.api.client.benchmarks;
+
+import com.inductiveautomation.ignition.common.config.BoundPropertySet;
+import com.inductiveautomation.ignition.common.model.values.QualityCode;
+import com.inductiveautomation.ignition.common.tags.config.CollisionPolicy;
+import com.inductiveautomation.ignition.common.tags.config.TagConfiguration;
+import com.inductiveautomation.ignition.gateway.tags.managed.WriteHandler;
+import com.kyvislabs.api.client.gateway.managers.TagManager;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in for the tag provider: values go into a map instead of a ManagedTagProvider, and tag/UDT
+ * configuration is accepted and dropped. Everything above the provider (path fixing, write batching)
+ * runs as it does in the gateway.
+ */
+public class InMemoryTagManager extends TagManager {
+    private final Map<String, Object> values = Collections.synchronizedMap(new HashMap<>());
+
+    public int size() {
+        return values.size();
+    }
+
+    public void clear() {
+        values.clear();
+    }
+
+    @Override
+    protected void updateValue(String tagPath, Object value, QualityCode qualityCode) {
+        values.put(tagPath, value);
+    }
+
+    @Override
+    public boolean tagExists(String tagPath) {
+        return values.containsKey(fixTagPath(tagPath));
+    }
+
+    @Override
+    public boolean tagIsNull(String tagPath) {
+        return values.get(fixTagPath(tagPath)) == null;
+    }
+
+    @Override
+    public void registerUDTs(List<TagConfiguration> udts, CollisionPolicy policy) {
+    }
+
+    @Override
+    public void configureTag(String tagPath, BoundPropertySet props) {
+    }
+
+    @Override
+    public void registerWriteHandler(String tagPath, WriteHandler handler) {
+    }
+
+    @Override
+    public void removeTag(String tagPath) {
+        values.remove(fixTagPath(tagPath));
+    }
+}
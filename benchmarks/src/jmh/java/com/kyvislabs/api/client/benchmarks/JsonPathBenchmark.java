@@ -0,0 +1,78 @@
+package com.kyvislabs.api.client.benchmarks;
+
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.API;
+import com.kyvislabs.api.client.gateway.api.ValueString;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {{jsonPath::...}} evaluation against a fleet response. A JSON-heavy function evaluates dozens of these
+ * per run against the same response - manyPaths does 40, first against a response seen before, then
+ * against a fresh one (as every run gets) so the parse is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonPathBenchmark {
+    @Param({"100", "1000"})
+    public int vehicles;
+
+    private String payload;
+    private ValueString ids;
+    private ValueString single;
+    private ValueString item;
+    private String itemPath;
+    private List<ValueString> paths;
+
+    @Setup
+    public void setup() throws APIException {
+        API api = Benchmarks.newApi("Bench", new InMemoryTagManager());
+        payload = Benchmarks.fleetPayload(vehicles);
+
+        ids = new ValueString(api, "{{jsonPath::$.vehicles[*].id}}");
+        single = new ValueString(api, "{{jsonPath::$.vehicles[5].location.lat}}");
+        item = new ValueString(api, "{{jsonPath::item::$.engine.rpm}}");
+        itemPath = "$['vehicles'][" + (vehicles / 2) + "]";
+
+        String[] fields = {"id", "name", "status", "online", "odometer", "location.lat", "location.lon", "engine.rpm", "fuel.level", "driver.name"};
+        paths = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            paths.add(new ValueString(api, "{{jsonPath::$.vehicles[" + (i % vehicles) + "]." + fields[i % fields.length] + "}}"));
+        }
+    }
+
+    @Benchmark
+    public List<String> pathList() throws APIException {
+        return ids.getValues(null, payload, null);
+    }
+
+    @Benchmark
+    public String singleValue() throws APIException {
+        return single.getValue(null, payload, null);
+    }
+
+    @Benchmark
+    public String itemValue() throws APIException {
+        return item.getValue(null, payload, itemPath);
+    }
+
+    @Benchmark
+    public void manyPaths(Blackhole blackhole) throws APIException {
+        for (ValueString path : paths) {
+            blackhole.consume(path.getValue(null, payload, null));
+        }
+    }
+
+    @Benchmark
+    public void manyPathsNewResponse(Blackhole blackhole) throws APIException {
+        String response = new String(payload);
+        for (ValueString path : paths) {
+            blackhole.consume(path.getValue(null, response, null));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.kyvislabs.api.client.benchmarks;
+
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.API;
+import com.kyvislabs.api.client.gateway.api.functions.Function;
+import com.kyvislabs.api.client.gateway.api.functions.actions.actions.TagAction;
+import com.kyvislabs.api.client.gateway.managers.TagWriteBatch;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tag action expanding a fleet response into tags, the way a function run does it (inside a write
+ * batch). "expand" is a plain JSONEXPAND; "udt" also turns every vehicle into a UDT instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TagActionBenchmark {
+    @Param({"100", "1000"})
+    public int vehicles;
+
+    @Param({"expand", "udt"})
+    public String mode;
+
+    private InMemoryTagManager tagManager;
+    private TagAction action;
+    private String payload;
+
+    @Setup
+    public void setup() throws APIException {
+        tagManager = new InMemoryTagManager();
+        API api = Benchmarks.newApi("Bench", tagManager);
+        Function function = new Function(api, "Fleet");
+        payload = Benchmarks.fleetPayload(vehicles);
+
+        action = new TagAction(function);
+        if (mode.equals("udt")) {
+            action.parse(1, Map.of("type", "jsonexpand", "path", "Fleet",
+                    "udts", List.of(Map.of("id", "Vehicle", "items", "{{jsonPath::$.vehicles[*]}}", "name", "{{jsonPath::item::$.id}}"))));
+        } else {
+            action.parse(1, Map.of("type", "jsonexpand", "path", "Fleet"));
+        }
+    }
+
+    @Benchmark
+    public int expand() throws APIException {
+        try (TagWriteBatch batch = tagManager.beginBatch()) {
+            action.handleResponse(null, 200, "application/json", payload);
+        }
+        return tagManager.size();
+    }
+}
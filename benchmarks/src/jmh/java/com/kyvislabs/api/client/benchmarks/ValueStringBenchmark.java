@@ -0,0 +1,54 @@
+package com.kyvislabs.api.client.benchmarks;
+
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.API;
+import com.kyvislabs.api.client.gateway.api.ValueString;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the value strings every URL, header, parameter, body and tag path goes through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueStringBenchmark {
+    private ValueString constant;
+    private ValueString variable;
+    private ValueString url;
+    private ValueString functions;
+
+    @Setup
+    public void setup() throws APIException {
+        API api = Benchmarks.newApi("Bench", new InMemoryTagManager());
+        api.getVariables().setVariable("host", null, null, null, "api.example.com");
+        api.getVariables().setVariable("site", null, null, null, "site-0042");
+        api.getVariables().setVariable("token", null, null, null, "abcdefghijklmnopqrstuvwxyz0123456789");
+
+        constant = new ValueString(api, "application/json");
+        variable = new ValueString(api, "{{var::token}}");
+        url = new ValueString(api, "https://{{var::host}}/api/v1/sites/{{var::site}}/devices?limit=100&name={{var::apiName}}");
+        functions = new ValueString(api, "{{var::site|upper|replace::-::_|sub::[0:5]}}");
+    }
+
+    @Benchmark
+    public String constant() throws APIException {
+        return constant.getValue(null, null, null);
+    }
+
+    @Benchmark
+    public String singleVariable() throws APIException {
+        return variable.getValue(null, null, null);
+    }
+
+    @Benchmark
+    public String url() throws APIException {
+        return url.getValue(null, null, null);
+    }
+
+    @Benchmark
+    public String functionChain() throws APIException {
+        return functions.getValue(null, null, null);
+    }
+}
@@ -0,0 +1,49 @@
+package com.kyvislabs.api.client.benchmarks;
+
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.Variables;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Variables read by many functions at once while a few (token refreshes, variable actions) write.
+ * Persisting goes to the mocked API, so this measures the in-memory store and its locking.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VariablesBenchmark {
+    private static final int VARIABLES = 50;
+
+    private Variables variables;
+
+    @Setup
+    public void setup() throws APIException {
+        variables = Benchmarks.newApi("Bench", new InMemoryTagManager()).getVariables();
+        for (int i = 0; i < VARIABLES; i++) {
+            variables.setVariable("var" + i, null, null, null, "value" + i);
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(6)
+    public String get() throws APIException {
+        return variables.getVariable("var" + ThreadLocalRandom.current().nextInt(VARIABLES));
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(2)
+    public void set() {
+        int i = ThreadLocalRandom.current().nextInt(VARIABLES);
+        variables.setVariable("var" + i, "value" + ThreadLocalRandom.current().nextInt());
+    }
+
+    @Benchmark
+    public String uncontendedGet() throws APIException {
+        return variables.getVariable("var7");
+    }
+}
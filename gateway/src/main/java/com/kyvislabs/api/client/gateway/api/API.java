@@ -10,17 +10,25 @@ import com.inductiveautomation.ignition.gateway.secrets.Plaintext;
 import com.inductiveautomation.ignition.gateway.secrets.Secret;
 import com.inductiveautomation.ignition.gateway.tags.managed.WriteHandler;
 import com.kyvislabs.api.client.gateway.api.functions.Function;
+import com.kyvislabs.api.client.gateway.api.functions.FunctionMetrics;
+import com.kyvislabs.api.client.gateway.api.webhooks.WebhookQueue;
 import com.kyvislabs.api.client.gateway.managers.APIManager;
 import com.kyvislabs.api.client.gateway.managers.CertificateManager;
+import com.kyvislabs.api.client.gateway.managers.CronManager;
+import com.kyvislabs.api.client.gateway.managers.ExecutorManager;
+import com.kyvislabs.api.client.gateway.managers.StoreFileManager;
+import com.kyvislabs.api.client.gateway.managers.TLSContextManager;
 import com.kyvislabs.api.client.gateway.managers.TagManager;
 import com.kyvislabs.api.client.gateway.records.APIResource;
 import net.dongliu.requests.RequestBuilder;
 import net.dongliu.requests.Requests;
 import net.dongliu.requests.Session;
+import net.dongliu.requests.executor.HttpClientExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
 
+import javax.net.ssl.SSLContext;
 import java.security.KeyStore;
 import java.util.Map;
 import java.util.Optional;
@@ -39,7 +47,14 @@ public class API implements WriteHandler {
     private Session session;
     private boolean httpsVerification, httpsCertificates;
     private KeyStore keyStore;
+    private String keyStoreFingerprint;
     private String certificate, privateKey;
+    private HttpClientExecutor httpExecutor;
+    private RateLimiter rateLimiter;
+    private TLS tls;
+    private Warmup warmup;
+    private Scheduling scheduling;
+    private ExecutionMode executionMode;
     private Webhooks webhooks;
     private Functions functions;
     private APIStatus status;
@@ -91,6 +106,10 @@ public class API implements WriteHandler {
         metricRegistry.remove(getMetricName(name, "webhooks.running"));
         metricRegistry.remove(getMetricName(name, "webhooks.waiting"));
         metricRegistry.remove(getMetricName(name, "webhooks.failed"));
+        FunctionMetrics.removeAll(metricRegistry, name);
+        WebhookQueue.removeAll(metricRegistry, name);
+        RateLimiter.removeAll(metricRegistry, name);
+        TLS.removeAll(metricRegistry, name);
     }
 
     /**
@@ -119,9 +138,22 @@ public class API implements WriteHandler {
                     session = Requests.session();
                 }
 
+                executionMode = ExecutionMode.valueOf(yamlMap.getOrDefault("executionMode", ExecutionMode.BLOCKING.name()).toString().toUpperCase());
+
                 httpsVerification = Boolean.valueOf(yamlMap.getOrDefault("httpsVerification", "true").toString());
                 httpsCertificates = Boolean.valueOf(yamlMap.getOrDefault("httpsCertificates", "false").toString());
 
+                // One pooled client per API rather than a connection per request - see HttpClientExecutor
+                HttpClientType httpClient = HttpClientType.valueOf(yamlMap.getOrDefault("httpClient", HttpClientType.URLCONNECTION.name()).toString().toUpperCase());
+                if (httpClient.equals(HttpClientType.HTTPCLIENT)) {
+                    httpExecutor = new HttpClientExecutor(Boolean.valueOf(yamlMap.getOrDefault("http2", "true").toString()));
+                }
+
+                rateLimiter = RateLimiter.parseRateLimit(this, yamlMap);
+                tls = TLS.parseTLS(this, yamlMap);
+                warmup = Warmup.parseWarmup(this, yamlMap);
+                scheduling = Scheduling.parseScheduling(yamlMap);
+
                 if (httpsCertificates) {
                     APIResource.APICertificate cert = resource.certificate();
                     if (cert == null || cert.certificate() == null || cert.certificate().isEmpty()
@@ -139,9 +171,11 @@ public class API implements WriteHandler {
                                 certificate = cert.certificate();
                                 privateKey = privKeyStr;
                                 this.keyStore = CertificateManager.loadKeyStore(certificate, privateKey, Optional.empty());
+                                this.keyStoreFingerprint = TLSContextManager.fingerprint(keyStore);
                             }
                         } catch (Throwable t) {
                             this.keyStore = null;
+                            this.keyStoreFingerprint = null;
                             logger.error("Error creating certificate keystore", t);
                         }
                     }
@@ -179,6 +213,9 @@ public class API implements WriteHandler {
                 } else {
                     setStatus(APIStatus.STARTING);
                     webhooks.startup();
+                    if (warmup != null) {
+                        warmup.startup();
+                    }
                     functions.startup();
                     setStatus(APIStatus.RUNNING);
                 }
@@ -198,11 +235,17 @@ public class API implements WriteHandler {
     public void pause() {
         webhooks.shutdown();
         functions.shutdown();
+        if (warmup != null) {
+            warmup.shutdown();
+        }
     }
 
     public void shutdown() {
         logger.debug("Shutting down");
         pause();
+        if (httpExecutor != null) {
+            httpExecutor.close();
+        }
         try {
             unregisterMetrics();
         } catch (Throwable ex) {
@@ -284,6 +327,50 @@ public class API implements WriteHandler {
         return keyStore;
     }
 
+    public synchronized String getKeyStoreFingerprint() {
+        return keyStoreFingerprint;
+    }
+
+    public synchronized ExecutorManager getExecutorManager() {
+        return apiManager.getExecutorManager();
+    }
+
+    public synchronized CronManager getCronManager() {
+        return apiManager.getCronManager();
+    }
+
+    public synchronized StoreFileManager getStoreFileManager() {
+        return apiManager.getStoreFileManager();
+    }
+
+    public synchronized TLSContextManager getTLSContextManager() {
+        return apiManager.getTLSContextManager();
+    }
+
+    public synchronized ExecutionMode getExecutionMode() {
+        return executionMode == null ? ExecutionMode.BLOCKING : executionMode;
+    }
+
+    public synchronized HttpClientExecutor getHttpExecutor() {
+        return httpExecutor;
+    }
+
+    public synchronized RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    public synchronized TLS getTLS() {
+        return tls;
+    }
+
+    public synchronized Warmup getWarmup() {
+        return warmup;
+    }
+
+    public synchronized Scheduling getScheduling() {
+        return scheduling;
+    }
+
     public synchronized Webhooks getWebhooks() {
         return webhooks;
     }
@@ -327,10 +414,30 @@ public class API implements WriteHandler {
             builder.verify(false);
         }
 
-        if (isHttpsCertificates() && getKeyStore() != null) {
-            builder.keyStore(getKeyStore());
-        } else if (apiManager.getKeyStore() != null) {
-            builder.keyStore(apiManager.getKeyStore());
+        boolean ownKeyStore = isHttpsCertificates() && getKeyStore() != null;
+        KeyStore keyStore = ownKeyStore ? getKeyStore() : apiManager.getKeyStore();
+        if (keyStore != null) {
+            builder.keyStore(keyStore);
+            // Always hand the request a context, so the executors never fall back to building their own
+            String fingerprint = ownKeyStore ? getKeyStoreFingerprint() : apiManager.getKeyStoreFingerprint();
+            if (getTLS() != null) {
+                getTLS().apply(builder, keyStore, fingerprint);
+            } else {
+                SSLContext context = getTLSContextManager().getContext(keyStore, fingerprint, -1, -1);
+                builder.sslContext(context, context.getSocketFactory());
+            }
+        }
+
+        if (getHttpExecutor() != null) {
+            builder.executor(getHttpExecutor());
+        }
+
+        if (getRateLimiter() != null) {
+            builder.interceptors(getRateLimiter());
+        }
+
+        if (getWarmup() != null) {
+            getWarmup().touch(url);
         }
 
         return builder;
@@ -347,6 +454,16 @@ public class API implements WriteHandler {
         }
     }
 
+    public enum ExecutionMode {
+        BLOCKING,
+        ASYNC;
+    }
+
+    public enum HttpClientType {
+        URLCONNECTION,
+        HTTPCLIENT;
+    }
+
     public enum APIStatus {
         DISABLED("Disabled"),
         EMPTY_CONFIGURATION("Empty Configuration"),
@@ -6,6 +6,7 @@ import com.kyvislabs.api.client.gateway.api.interfaces.YamlParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -54,6 +55,10 @@ public class Functions implements YamlParser {
         return new FunctionsStatus(running, unknown, failed);
     }
 
+    public Collection<Function> getAll() {
+        return functions.values();
+    }
+
     public boolean functionExists(String name) {
         return functions.containsKey(name);
     }
@@ -0,0 +1,313 @@
+package com.kyvislabs.api.client.gateway.api;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import net.dongliu.requests.Interceptor;
+import net.dongliu.requests.RawResponse;
+import net.dongliu.requests.Request;
+import net.dongliu.requests.exception.RequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Paces every request of an API, whichever function (or authentication, or redirect hop) sends it. The
+ * functions run on their own timers, so on their own nothing keeps them together under the upstream's
+ * quota - they burst, get 429s and fail. Installed as an interceptor on every RequestBuilder handed out
+ * by API.getRequestBuilder().
+ * <p>
+ * A token bucket holds up to "burst" requests and refills at "requests" per "duration" "unit"; a request
+ * that finds it empty waits for its token instead of being sent. Waiters reserve tokens in the order
+ * they arrive, so nobody is starved. "maxInFlight" additionally caps the requests in progress at the
+ * same time: a request holds its slot until its response body has been read (or the response closed),
+ * not just until the headers arrive. Requests following a redirect take a token like any other, but
+ * keep the slot of the request they follow.
+ * <p>
+ * A 429 pauses the bucket until the Retry-After the upstream sent (a second without one) and halves the
+ * rate; every successful response then gives back a little of the configured rate. Nothing is sent
+ * faster than configured. A blocking request waits on the sending thread; an async one (executionMode:
+ * async) waits without holding any thread, its send scheduled once its turn comes. Either way a request
+ * that would have to wait longer than "maxWait" for its token and slot together fails instead.
+ */
+public class RateLimiter implements Interceptor {
+    private static final String PREFIX = "rateLimit";
+
+    private final Logger logger;
+    private final double rate;
+    private final double burst;
+    private final long maxWait;
+    private final Slots inFlight;
+    private final Timer waits;
+    private final Counter throttled;
+    private double currentRate;
+    private double tokens;
+    private long lastRefill;
+    private long pausedUntil;
+
+    private RateLimiter(API api, int requests, long periodNanos, int burst, int maxInFlight, int maxWait) {
+        this.logger = LoggerFactory.getLogger(String.format("API.%s.RateLimiter", api.getName()));
+        this.rate = requests / (double) periodNanos;
+        this.burst = burst;
+        this.maxWait = TimeUnit.SECONDS.toNanos(maxWait);
+        this.inFlight = maxInFlight > 0 ? new Slots(maxInFlight) : null;
+        this.currentRate = rate;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+        this.pausedUntil = lastRefill;
+
+        MetricRegistry registry = api.getGatewayContext().getMetricRegistry();
+        this.waits = registry.timer(API.getMetricName(api.getName(), MetricRegistry.name(PREFIX, "wait")));
+        this.throttled = registry.counter(API.getMetricName(api.getName(), MetricRegistry.name(PREFIX, "throttled")));
+    }
+
+    public static RateLimiter parseRateLimit(API api, Map yamlMap) {
+        if (!yamlMap.containsKey("rateLimit")) {
+            return null;
+        }
+
+        Map rateLimitMap = (Map) yamlMap.get("rateLimit");
+        int requests = Integer.parseInt(rateLimitMap.getOrDefault("requests", 10).toString());
+        int duration = Integer.parseInt(rateLimitMap.getOrDefault("duration", 1).toString());
+        TimeUnit unit = TimeUnit.valueOf(rateLimitMap.getOrDefault("unit", "seconds").toString().toUpperCase());
+        int burst = Integer.parseInt(rateLimitMap.getOrDefault("burst", requests).toString());
+        int maxInFlight = Integer.parseInt(rateLimitMap.getOrDefault("maxInFlight", 0).toString());
+        int maxWait = Integer.parseInt(rateLimitMap.getOrDefault("maxWait", 60).toString());
+        return new RateLimiter(api, requests, unit.toNanos(duration), Math.max(1, burst), maxInFlight, maxWait);
+    }
+
+    /**
+     * Removes the rate limiter metrics of the given API.
+     */
+    public static void removeAll(MetricRegistry registry, String apiName) {
+        registry.removeMatching(MetricFilter.startsWith(API.getMetricName(apiName, PREFIX) + "."));
+    }
+
+    @Override
+    public RawResponse intercept(InvocationTarget target, Request request) {
+        long start = System.nanoTime();
+        boolean slot = false;
+        try {
+            long wait = reserve();
+            if (wait > maxWait) {
+                unreserve();
+                throw tooLong(wait);
+            }
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            if (inFlight != null && !request.redirected()) {
+                CompletableFuture<Void> acquired = inFlight.acquire();
+                try {
+                    acquired.get(Math.max(0, maxWait - (System.nanoTime() - start)), TimeUnit.NANOSECONDS);
+                } catch (TimeoutException ex) {
+                    if (acquired.cancel(false)) {
+                        throw tooLong(System.nanoTime() - start);
+                    }
+                    // Granted just as the wait ran out
+                } catch (ExecutionException ex) {
+                    throw new RequestsException(ex);
+                }
+                slot = true;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RequestsException(ex);
+        }
+        waits.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        try {
+            RawResponse response = handle(target.proceed(request));
+            if (slot) {
+                slot = false;
+                response = response.onClose(inFlight::release);
+            }
+            return response;
+        } finally {
+            if (slot) {
+                inFlight.release();
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<RawResponse> interceptAsync(AsyncInvocationTarget target, Request request, Executor executor) {
+        long start = System.nanoTime();
+        long wait = reserve();
+        if (wait > maxWait) {
+            unreserve();
+            return CompletableFuture.failedFuture(tooLong(wait));
+        }
+
+        // Waits are scheduled, so no thread of the executor is held while waiting for a turn
+        CompletableFuture<Void> ready = wait > 0
+                ? CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS, executor))
+                : CompletableFuture.completedFuture(null);
+        boolean useSlot = inFlight != null && !request.redirected();
+        if (useSlot) {
+            ready = ready.thenCompose(ignored -> {
+                CompletableFuture<Void> acquired = inFlight.acquire();
+                long remaining = Math.max(0, maxWait - (System.nanoTime() - start));
+                // A timed out waiter is passed over by release(), so failing here never leaks a slot
+                return acquired.orTimeout(remaining, TimeUnit.NANOSECONDS)
+                        .exceptionallyCompose(ex -> CompletableFuture.failedFuture(tooLong(System.nanoTime() - start)));
+            });
+        }
+
+        return ready.thenCompose(ignored -> {
+            waits.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            CompletableFuture<RawResponse> sent;
+            try {
+                sent = target.proceedAsync(request);
+            } catch (Throwable ex) {
+                sent = CompletableFuture.failedFuture(ex);
+            }
+            return sent.handle((response, ex) -> {
+                if (ex != null) {
+                    if (useSlot) {
+                        inFlight.release();
+                    }
+                    throw ex instanceof RuntimeException ? (RuntimeException) ex : new CompletionException(ex);
+                }
+                try {
+                    response = handle(response);
+                } catch (RuntimeException handleEx) {
+                    if (useSlot) {
+                        inFlight.release();
+                    }
+                    throw handleEx;
+                }
+                return useSlot ? response.onClose(inFlight::release) : response;
+            });
+        });
+    }
+
+    private RawResponse handle(RawResponse response) {
+        if (response.statusCode() == 429) {
+            throttle(response.getHeader("Retry-After"));
+        } else if (response.statusCode() < 400) {
+            recover();
+        }
+        return response;
+    }
+
+    private static RequestsException tooLong(long wait) {
+        return new RequestsException("Rate limit: request would wait " + TimeUnit.NANOSECONDS.toSeconds(wait) + "s, more than maxWait");
+    }
+
+    /**
+     * Take a token, going into debt if there isn't one.
+     *
+     * @return how long to wait before sending, in nanoseconds
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        refill(now);
+        tokens -= 1;
+        // Tokens only start coming back once a pause is over
+        long wait = tokens >= 0 ? 0 : (long) Math.ceil(-tokens / currentRate);
+        return Math.max(0, pausedUntil - now) + wait;
+    }
+
+    private synchronized void unreserve() {
+        tokens += 1;
+    }
+
+    private void refill(long now) {
+        if (now > pausedUntil) {
+            tokens = Math.min(burst, tokens + (now - Math.max(lastRefill, pausedUntil)) * currentRate);
+        }
+        lastRefill = now;
+    }
+
+    private synchronized void throttle(String retryAfter) {
+        throttled.inc();
+        long now = System.nanoTime();
+        refill(now);
+        long pause = parseRetryAfter(retryAfter);
+        pausedUntil = Math.max(pausedUntil, now + pause);
+        tokens = Math.min(tokens, 0);
+        currentRate = Math.max(rate / 64, currentRate / 2);
+        logger.debug("Throttled by the API, pausing for " + TimeUnit.NANOSECONDS.toMillis(pause) + "ms");
+    }
+
+    private synchronized void recover() {
+        if (currentRate < rate) {
+            refill(System.nanoTime());
+            currentRate = Math.min(rate, currentRate + rate / 20);
+        }
+    }
+
+    /**
+     * Slots for maxInFlight, granted in the order they're asked for. Unlike a Semaphore, waiting for one is a
+     * future, so async requests don't hold a thread while they wait. A waiter that gave up (its future
+     * cancelled or timed out) is passed over.
+     */
+    private static class Slots {
+        private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+        private int available;
+
+        private Slots(int slots) {
+            this.available = slots;
+        }
+
+        private synchronized CompletableFuture<Void> acquire() {
+            if (available > 0 && waiters.isEmpty()) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+
+        private void release() {
+            while (true) {
+                CompletableFuture<Void> next;
+                synchronized (this) {
+                    next = waiters.poll();
+                    if (next == null) {
+                        available++;
+                        return;
+                    }
+                }
+                // Completed outside the lock, the waiter's continuation may run right here
+                if (next.complete(null)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Retry-After is either a number of seconds or an HTTP date.
+     */
+    private static long parseRetryAfter(String retryAfter) {
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(retryAfter.trim())));
+            } catch (NumberFormatException ex) {
+                try {
+                    ZonedDateTime date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                    return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toNanos());
+                } catch (DateTimeParseException ignored) {
+                }
+            }
+        }
+        return TimeUnit.SECONDS.toNanos(1);
+    }
+}
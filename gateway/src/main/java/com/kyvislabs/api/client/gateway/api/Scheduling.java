@@ -0,0 +1,45 @@
+package com.kyvislabs.api.client.gateway.api;
+
+import java.util.Map;
+
+/**
+ * API-wide defaults for timer schedules, each of which a function's schedule can override. Timers used
+ * to all start at once when the API started, and with the same period they stayed lined up, so every
+ * period began with all of the API's requests, tag writes and upstream load at the same moment.
+ * <p>
+ * "spread" starts each timer at an offset into its period derived from the API and function names,
+ * so timers with the same period are spread over it and keep their place across restarts and reloads.
+ * "jitter" moves every run by up to that percentage of the period either way, for timers that would
+ * otherwise drift back into line with another client's.
+ */
+public class Scheduling {
+    private final boolean spread;
+    private final int jitter;
+
+    private Scheduling(boolean spread, int jitter) {
+        this.spread = spread;
+        this.jitter = jitter;
+    }
+
+    public static Scheduling parseScheduling(Map yamlMap) {
+        Map schedulingMap = (Map) yamlMap.getOrDefault("scheduling", Map.of());
+        return new Scheduling(
+                Boolean.parseBoolean(schedulingMap.getOrDefault("spread", false).toString()),
+                parseJitter(schedulingMap.getOrDefault("jitter", 0)));
+    }
+
+    /**
+     * Percentage of the period, 0 to 50.
+     */
+    public static int parseJitter(Object jitterObj) {
+        return Math.max(0, Math.min(50, Integer.parseInt(jitterObj.toString().trim().replace("%", ""))));
+    }
+
+    public synchronized boolean isSpread() {
+        return spread;
+    }
+
+    public synchronized int getJitter() {
+        return jitter;
+    }
+}
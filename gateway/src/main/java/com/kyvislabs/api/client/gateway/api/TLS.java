@@ -0,0 +1,152 @@
+package com.kyvislabs.api.client.gateway.api;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import net.dongliu.requests.RequestBuilder;
+
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TLS settings of an API: how many sessions the client keeps for resumption and for how long, so that
+ * short polls against mutual-TLS APIs can resume a session instead of paying for a full handshake each
+ * time a connection is opened. The SSLContext comes from the TLSContextManager, shared with any API using
+ * the same certificate and settings, and is kept here for as long as the API uses the same KeyStore.
+ * <p>
+ * Handshakes made through the API's socket factory are published as metrics: "tls.handshakes" times every
+ * handshake, and "tls.resumed" counts the ones that resumed an earlier session. Only the urlconnection
+ * client goes through a socket factory - with httpclient the context (and its session cache) is used, but
+ * its handshakes aren't measured.
+ */
+public class TLS {
+    private static final String PREFIX = "tls";
+
+    private final API api;
+    private final int sessionCacheSize;
+    private final int sessionTimeout;
+    private final Timer handshakes;
+    private final Counter resumed;
+    private KeyStore keyStore;
+    private SSLContext context;
+    private SSLSocketFactory socketFactory;
+
+    private TLS(API api, int sessionCacheSize, int sessionTimeout) {
+        this.api = api;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeout = sessionTimeout;
+
+        MetricRegistry registry = api.getGatewayContext().getMetricRegistry();
+        this.handshakes = registry.timer(API.getMetricName(api.getName(), MetricRegistry.name(PREFIX, "handshakes")));
+        this.resumed = registry.counter(API.getMetricName(api.getName(), MetricRegistry.name(PREFIX, "resumed")));
+    }
+
+    public static TLS parseTLS(API api, Map yamlMap) {
+        Map tlsMap = (Map) yamlMap.getOrDefault("tls", Map.of());
+        return new TLS(api,
+                Integer.parseInt(tlsMap.getOrDefault("sessionCacheSize", -1).toString()),
+                Integer.parseInt(tlsMap.getOrDefault("sessionTimeout", -1).toString()));
+    }
+
+    /**
+     * Removes the TLS metrics of the given API.
+     */
+    public static void removeAll(MetricRegistry registry, String apiName) {
+        registry.removeMatching(MetricFilter.startsWith(API.getMetricName(apiName, PREFIX) + "."));
+    }
+
+    /**
+     * Have the request use the context for the key store. The context and its socket factory are only
+     * looked up when the key store changes - the same factory matters too, as connections are only reused
+     * by HttpsURLConnection with the factory that opened them.
+     *
+     * @param fingerprint the key store's, computed when it was loaded (see TLSContextManager.fingerprint())
+     */
+    public void apply(RequestBuilder builder, KeyStore keyStore, String fingerprint) {
+        SSLContext context;
+        SSLSocketFactory socketFactory;
+        synchronized (this) {
+            if (this.keyStore != keyStore) {
+                this.context = api.getTLSContextManager().getContext(keyStore, fingerprint, sessionCacheSize, sessionTimeout);
+                this.socketFactory = new MeasuringSocketFactory(this.context.getSocketFactory());
+                this.keyStore = keyStore;
+            }
+            context = this.context;
+            socketFactory = this.socketFactory;
+        }
+        builder.sslContext(context, socketFactory);
+    }
+
+    private class MeasuringSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory factory;
+
+        private MeasuringSocketFactory(SSLSocketFactory factory) {
+            this.factory = factory;
+        }
+
+        private Socket measure(Socket socket) {
+            if (socket instanceof SSLSocket) {
+                long start = System.nanoTime();
+                long startMillis = System.currentTimeMillis();
+                HandshakeCompletedListener listener = event -> {
+                    handshakes.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    // A resumed session keeps the creation time of the handshake that established it
+                    if (event.getSession().getCreationTime() < startMillis) {
+                        resumed.inc();
+                    }
+                };
+                ((SSLSocket) socket).addHandshakeCompletedListener(listener);
+            }
+            return socket;
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return factory.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return factory.getSupportedCipherSuites();
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return measure(factory.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return measure(factory.createSocket(socket, host, port, autoClose));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return measure(factory.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return measure(factory.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return measure(factory.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return measure(factory.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
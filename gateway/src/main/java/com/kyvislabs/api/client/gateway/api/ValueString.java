@@ -11,6 +11,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -18,10 +19,16 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class ValueString extends ValueHandler {
+    private static final Pattern PARAMETER_PATTERN = Pattern.compile("(\\{\\{(.*?)\\}\\})+");
+    private static final ValueStringPart[] NO_PARTS = new ValueStringPart[0];
+
     private Logger logger;
     private API api;
     private String parameter;
-    private List<ValueStringPart> parts;
+    // Never changed once parsing is done, so read without locking on every evaluation
+    private ValueStringPart[] parts = NO_PARTS;
+    // The whole value, when it has no commands in it
+    private String constant = "";
 
     public static ValueString parseValueString(API api, Map yamlMap, String key) throws APIException {
         return parseValueString(api, yamlMap, key, false);
@@ -63,7 +70,6 @@ public class ValueString extends ValueHandler {
         this.logger = LoggerFactory.getLogger(String.format("API.%s.Parameter.Value", api.getName()));
         this.api = api;
         this.parameter = parameter;
-        this.parts = Collections.synchronizedList(new ArrayList<>());
         if (parameter != null) {
             parseParameter();
         }
@@ -73,8 +79,26 @@ public class ValueString extends ValueHandler {
         return api;
     }
 
-    private synchronized void addPart(ValueStringPart part) {
-        parts.add(part);
+    private void addPart(ValueStringPart part) {
+        addParts(Collections.singletonList(part));
+    }
+
+    private void addParts(List<ValueStringPart> newParts) {
+        ValueStringPart[] all = Arrays.copyOf(parts, parts.length + newParts.size());
+        for (int i = 0; i < newParts.size(); i++) {
+            all[parts.length + i] = newParts.get(i);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (ValueStringPart part : all) {
+            if (!(part instanceof StaticString)) {
+                builder = null;
+                break;
+            }
+            builder.append(((StaticString) part).getValue(null, null, null));
+        }
+        constant = builder == null ? null : builder.toString();
+        parts = all;
     }
 
     private synchronized String getParameter() {
@@ -82,9 +106,9 @@ public class ValueString extends ValueHandler {
     }
 
     private void parseParameter() throws APIException {
+        List<ValueStringPart> parts = new ArrayList<>();
         try {
-            Pattern r = Pattern.compile("(\\{\\{(.*?)\\}\\})+");
-            Matcher m = r.matcher(parameter);
+            Matcher m = PARAMETER_PATTERN.matcher(parameter);
             int i = 0;
             while (m.find()) {
                 String part = m.group(1);
@@ -103,15 +127,26 @@ public class ValueString extends ValueHandler {
         } catch (Throwable ex) {
             throw new APIException("Error parsing value string '" + parameter + "': " + ex.getMessage(), ex);
         }
+        addParts(parts);
     }
 
     @Override
     public List<String> getValues(VariableStore store, String response, String item) throws APIException {
-        return parts.get(0).getValues(store, response, item);
+        return parts[0].getValues(store, response, item);
     }
 
     @Override
     public String getValue(VariableStore store, String response, String item) throws APIException {
+        if (constant != null) {
+            return constant;
+        }
+
+        ValueStringPart[] parts = this.parts;
+        if (parts.length == 1) {
+            // Same as appending it to an empty builder, null included
+            return String.valueOf(parts[0].getValue(store, response, item));
+        }
+
         StringBuilder builder = new StringBuilder();
         for (ValueStringPart part : parts) {
             builder.append(part.getValue(store, response, item));
@@ -121,6 +156,6 @@ public class ValueString extends ValueHandler {
 
     @Override
     public Object getValueAsObject(VariableStore store, String response) throws APIException {
-        return parts.get(0).getValueAsObject(store, response);
+        return parts[0].getValueAsObject(store, response);
     }
 }
@@ -0,0 +1,198 @@
+package com.kyvislabs.api.client.gateway.api;
+
+import com.kyvislabs.api.client.gateway.api.functions.Function;
+import net.dongliu.requests.RawResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens connections to the API's hosts before its functions start. Otherwise every function's first
+ * request pays for DNS, TCP and TLS setup, and functions scheduled together all do it at the same time.
+ * For every distinct host in the function URLs (URLs that can't be resolved without a run's variables
+ * are skipped) the name is resolved and "connections" HEAD requests are sent at once, each leaving a
+ * connection in the pool - and a TLS session to resume - for the first runs. Startup waits up to
+ * "timeout" for them; a host that doesn't answer doesn't hold up the API.
+ * <p>
+ * With "keepAlive" set, hosts that haven't been used for that long are checked again in the background:
+ * pooled httpclient connections idle that long are dropped (the server has likely closed them on its
+ * side, and the next request would be the one to find out) and the host is warmed up again. With
+ * urlconnection the JVM already expires idle connections, so only the warm up is repeated.
+ */
+public class Warmup {
+    private final Logger logger;
+    private final API api;
+    private final boolean enabled;
+    private final int connections;
+    private final int timeout;
+    private final int keepAlive;
+    // Host (scheme://host:port) -> last time a request was built for it
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> keepAliveFuture;
+
+    private Warmup(API api, boolean enabled, int connections, int timeout, int keepAlive) {
+        this.logger = LoggerFactory.getLogger(String.format("API.%s.Warmup", api.getName()));
+        this.api = api;
+        this.enabled = enabled;
+        this.connections = connections;
+        this.timeout = timeout;
+        this.keepAlive = keepAlive;
+    }
+
+    public static Warmup parseWarmup(API api, Map yamlMap) {
+        Object warmupObj = yamlMap.getOrDefault("warmup", false);
+        if (warmupObj instanceof Map) {
+            Map warmupMap = (Map) warmupObj;
+            return new Warmup(api,
+                    Boolean.parseBoolean(warmupMap.getOrDefault("enabled", true).toString()),
+                    Math.max(1, Integer.parseInt(warmupMap.getOrDefault("connections", 1).toString())),
+                    Integer.parseInt(warmupMap.getOrDefault("timeout", 5).toString()),
+                    Integer.parseInt(warmupMap.getOrDefault("keepAlive", 0).toString()));
+        }
+        return new Warmup(api, Boolean.parseBoolean(warmupObj.toString()), 1, 5, 0);
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public void startup() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Set<String> hosts = getHosts();
+        long start = System.currentTimeMillis();
+        warm(hosts);
+        logger.debug("Warmed up " + hosts.size() + " hosts in " + (System.currentTimeMillis() - start) + "ms");
+
+        if (keepAlive > 0) {
+            synchronized (this) {
+                keepAliveFuture = api.getGatewayContext().getScheduledExecutorService().scheduleWithFixedDelay(this::keepAlive, keepAlive, keepAlive, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (keepAliveFuture != null) {
+            keepAliveFuture.cancel(false);
+            keepAliveFuture = null;
+        }
+        lastUsed.clear();
+    }
+
+    /**
+     * Note a request to the URL's host, so keepAlive leaves it alone.
+     */
+    public void touch(String url) {
+        if (keepAlive > 0) {
+            String host = getHost(url);
+            if (host != null) {
+                lastUsed.put(host, System.currentTimeMillis());
+            }
+        }
+    }
+
+    private Set<String> getHosts() {
+        Set<String> hosts = new LinkedHashSet<>();
+        for (Function function : api.getFunctions().getAll()) {
+            try {
+                String host = getHost(function.getUrl().getValue(function));
+                if (host != null) {
+                    hosts.add(host);
+                }
+            } catch (Throwable ex) {
+                logger.debug("Skipping function '" + function.getName() + "', its URL can't be resolved before it runs");
+            }
+        }
+        return hosts;
+    }
+
+    private static String getHost(String url) {
+        try {
+            URI uri = URI.create(url);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return null;
+            }
+            return uri.getScheme() + "://" + uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private void warm(Set<String> hosts) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (String host : hosts) {
+            for (int i = 0; i < connections; i++) {
+                futures.add(CompletableFuture.runAsync(() -> warm(host), api.getExecutorManager().getIoExecutor()));
+            }
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(timeout, TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            logger.debug("Warm up still running after " + timeout + "s, starting anyway");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable ex) {
+            // Logged per host by warm(host)
+        }
+    }
+
+    private void warm(String host) {
+        try {
+            // Resolving first makes a DNS failure show as such, rather than as a failed request
+            InetAddress.getAllByName(URI.create(host).getHost());
+
+            // Any answer will do, the connection is what we're after. Read to the end so it goes back to
+            // the pool. Only the read timeout is ours: the connect timeout is part of what picks the pooled
+            // client (see HttpClientExecutor.ClientKey), so it stays the one the functions' requests use, or
+            // the connections warmed up would be in a client none of them ever get.
+            RawResponse response = api.getRequestBuilder(host + "/", Function.Method.HEAD)
+                    .followRedirect(false)
+                    .socksTimeout(timeout * 1000)
+                    .send();
+            response.discardBody();
+            lastUsed.put(host, System.currentTimeMillis());
+        } catch (Throwable ex) {
+            logger.debug("Error warming up '" + host + "': " + ex.getMessage());
+        }
+    }
+
+    private void keepAlive() {
+        try {
+            long idle = TimeUnit.SECONDS.toMillis(keepAlive);
+            if (api.getHttpExecutor() != null) {
+                int evicted = api.getHttpExecutor().evictIdle(idle);
+                if (evicted > 0) {
+                    logger.debug("Dropped " + evicted + " idle HTTP clients");
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            Set<String> idleHosts = new LinkedHashSet<>();
+            for (String host : getHosts()) {
+                if (now - lastUsed.getOrDefault(host, 0L) >= idle) {
+                    idleHosts.add(host);
+                }
+            }
+            if (!idleHosts.isEmpty()) {
+                warm(idleHosts);
+            }
+        } catch (Throwable ex) {
+            logger.error("Error keeping connections alive", ex);
+        }
+    }
+}
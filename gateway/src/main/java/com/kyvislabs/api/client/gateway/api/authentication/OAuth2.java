@@ -599,6 +599,7 @@ public class OAuth2 extends AbstractAuthType {
                     if (success) {
                         return res.readToBytes();
                     } else {
+                        res.discardBody();
                         throw new APIException("OAuth2: Failed to get captcha image");
                     }
                 } else {
@@ -87,15 +87,20 @@ public class SessionAuth extends AbstractAuthType {
 
         logger.debug(api.getName() + " request [method=" + Function.Method.POST.toString() + ", url=" + url + ", headers=none, params=none, body=" + obj.toString() + "]");
 
-        RawResponse res = builder.send();
-        boolean success = res.statusCode() >= 200 && res.statusCode() <= 299;
-
-        if (success) {
-            setAuthenticated(true);
-        } else {
-            logger.debug("Failed authentication (" + res.statusCode() + "): " + res.readToText());
-            setAuthenticated(false);
-            throw new APIException("SessionAuth: Failed login");
+        // Closed on every path: with a rate limit, the request's maxInFlight slot is only given back once
+        // the body has been read or closed
+        try (RawResponse res = builder.send()) {
+            boolean success = res.statusCode() >= 200 && res.statusCode() <= 299;
+
+            if (success) {
+                // Only the session cookie matters, the body goes so the connection can be reused
+                res.discardBody();
+                setAuthenticated(true);
+            } else {
+                logger.debug("Failed authentication (" + res.statusCode() + "): " + res.readToText());
+                setAuthenticated(false);
+                throw new APIException("SessionAuth: Failed login");
+            }
         }
     }
 
@@ -164,45 +164,47 @@ public class TokenAuth extends AbstractAuthType {
                 .map(key -> key + "=" + headersMap.get(key).toString())
                 .collect(Collectors.joining(", ", "{", "}")) + ", params=none, body=" + body + "]");
 
-        RawResponse res = builder.send();
-        boolean success = res.statusCode() >= 200 && res.statusCode() <= 299;
-
-        if (success) {
-            try {
-                String response = res.readToText();
-                JSONObject responseObj = new JSONObject(response);
-
-                // Batched into one persist/reload (see Variables.batchUpdate()). This also fixes a
-                // latent bug: these dynamically-named "auth-" tokens use the 5-arg setVariable()
-                // overload (needed to set hidden/sensitive metadata, since they're new variables not
-                // declared by initializeVariables()), which never persists on its own by design -
-                // previously they only got flushed to disk as an incidental side effect of the
-                // expiration setVariable() call below, so if expiresIn wasn't configured they never
-                // persisted at all and were silently lost on every gateway restart. batchUpdate()
-                // always persists once at the end regardless of which calls ran inside it.
-                api.getVariables().batchUpdate(() -> {
-                    try {
-                        for (String token : getTokens()) {
-                            String tokenValue = responseObj.getString(token);
-                            api.getVariables().setVariable("auth-" + token, false, true, true, tokenValue);
+        // Closed on every path, see SessionAuth.authenticate()
+        try (RawResponse res = builder.send()) {
+            boolean success = res.statusCode() >= 200 && res.statusCode() <= 299;
+
+            if (success) {
+                try {
+                    String response = res.readToText();
+                    JSONObject responseObj = new JSONObject(response);
+
+                    // Batched into one persist/reload (see Variables.batchUpdate()). This also fixes a
+                    // latent bug: these dynamically-named "auth-" tokens use the 5-arg setVariable()
+                    // overload (needed to set hidden/sensitive metadata, since they're new variables not
+                    // declared by initializeVariables()), which never persists on its own by design -
+                    // previously they only got flushed to disk as an incidental side effect of the
+                    // expiration setVariable() call below, so if expiresIn wasn't configured they never
+                    // persisted at all and were silently lost on every gateway restart. batchUpdate()
+                    // always persists once at the end regardless of which calls ran inside it.
+                    api.getVariables().batchUpdate(() -> {
+                        try {
+                            for (String token : getTokens()) {
+                                String tokenValue = responseObj.getString(token);
+                                api.getVariables().setVariable("auth-" + token, false, true, true, tokenValue);
+                            }
+
+                            if (getExpiresIn() != null) {
+                                String expiration = LocalDateTime.now().plusSeconds(getExpiresIn()).format(DATE_FORMATTER);
+                                api.getVariables().setVariable(VARIABLE_EXPIRATION, expiration);
+                            }
+                        } catch (Exception ex) {
+                            // Runnable.run() can't declare checked exceptions; rethrow unchecked so the
+                            // outer catch(Throwable) below still handles it (JSONException is checked here).
+                            throw new RuntimeException(ex);
                         }
-
-                        if (getExpiresIn() != null) {
-                            String expiration = LocalDateTime.now().plusSeconds(getExpiresIn()).format(DATE_FORMATTER);
-                            api.getVariables().setVariable(VARIABLE_EXPIRATION, expiration);
-                        }
-                    } catch (Exception ex) {
-                        // Runnable.run() can't declare checked exceptions; rethrow unchecked so the
-                        // outer catch(Throwable) below still handles it (JSONException is checked here).
-                        throw new RuntimeException(ex);
-                    }
-                });
-            } catch (Throwable ex) {
-                logger.error("Error parsing response");
+                    });
+                } catch (Throwable ex) {
+                    logger.error("Error parsing response");
+                }
+            } else {
+                logger.debug("Failed authentication (" + res.statusCode() + "): " + res.readToText());
+                throw new APIException("Token: Failed login");
             }
-        } else {
-            logger.debug("Failed authentication (" + res.statusCode() + "): " + res.readToText());
-            throw new APIException("Token: Failed login");
         }
     }
 }
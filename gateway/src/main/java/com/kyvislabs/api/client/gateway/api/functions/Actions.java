@@ -6,7 +6,11 @@ import com.kyvislabs.api.client.gateway.api.interfaces.ResponseHandler;
 import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
 import com.kyvislabs.api.client.gateway.api.interfaces.YamlParser;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -14,6 +18,8 @@ import java.util.Map;
 public class Actions implements YamlParser, ResponseHandler {
     private Function function;
     private List<Action> actions;
+    private boolean skipIfUnchanged;
+    private byte[] lastDigest;
 
     public Actions(Function function) {
         this.function = function;
@@ -28,6 +34,7 @@ public class Actions implements YamlParser, ResponseHandler {
                 Action action = Action.getAction(function, actionMap);
                 action.parse(version, actionMap);
                 actions.add(action);
+                skipIfUnchanged |= action.isSkipIfUnchanged();
             }
         }
     }
@@ -38,12 +45,62 @@ public class Actions implements YamlParser, ResponseHandler {
         }
     }
 
+    /**
+     * Actions flagged skipIfUnchanged don't run when the formatted response (and status code) is the same
+     * as the last one all actions were handled for. Only for runs without a variable store - scheduled and
+     * tag-triggered ones: with a store, the same response can be meant for different tags or variables
+     * depending on the store's values.
+     * <p>
+     * The digest is cleared before actions run on a changed response and only set again once they all
+     * finished, so a response whose actions failed partway is never treated as already handled.
+     */
     @Override
     public void handleResponse(VariableStore store, int statusCode, String contentType, String response) throws APIException {
+        byte[] digest = null;
+        boolean unchanged = false;
+        if (skipIfUnchanged && store == null) {
+            digest = digest(statusCode, response);
+            unchanged = Arrays.equals(digest, getLastDigest());
+            if (unchanged) {
+                function.getMetrics().unchanged();
+            } else {
+                setLastDigest(null);
+            }
+        }
+
         for (Action action : actions) {
+            if (unchanged && action.isSkipIfUnchanged()) {
+                continue;
+            }
+
             if (action.proceed(store, response)) {
                 action.handleResponse(store, statusCode, contentType, response);
             }
         }
+
+        if (digest != null) {
+            setLastDigest(digest);
+        }
+    }
+
+    private synchronized byte[] getLastDigest() {
+        return lastDigest;
+    }
+
+    private synchronized void setLastDigest(byte[] lastDigest) {
+        this.lastDigest = lastDigest;
+    }
+
+    static byte[] digest(int statusCode, String response) throws APIException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(Integer.toString(statusCode).getBytes(StandardCharsets.UTF_8));
+            if (response != null) {
+                md.update(response.getBytes(StandardCharsets.UTF_8));
+            }
+            return md.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new APIException("Error computing response digest", ex);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package com.kyvislabs.api.client.gateway.api.functions;
+
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * Limits how many runs of a function can be in progress at once. Nothing else does: a tag trigger
+ * firing again, script calls, function actions and retries all start runs of their own, and against a
+ * slow upstream they piled up - more load on the upstream that was already slow, and runs racing each
+ * other on the function's variables and status tags.
+ * <p>
+ * Up to "max" runs go ahead; what happens to the ones after is the "overflow" policy. "skip" drops them.
+ * "queue" keeps up to "queueSize" of them (1 by default) to run, in order, as slots free up, and skips
+ * any beyond that - a queue without a bound would only bring back the pile up it's meant to stop.
+ * Scheduled runs (no variable store) are all the same run, so one asked for while another is queued is
+ * merged into it instead - a burst of triggers becomes one more run, not a queue of them. Runs with a
+ * store (scripts, tag write handlers) take a place in the queue each, as their variables differ. Both
+ * skipped and merged runs are counted in the function's metrics. A max of 0, the default, doesn't limit
+ * runs at all.
+ * <p>
+ * The gate is for runs started from outside: a run another one depends on, and the runs of a function
+ * action, are part of that run and bypass it (see Function.callBlocking()) - a dependency skipped because
+ * the function happened to be running would leave its dependant without the variables it needs.
+ * <p>
+ * An async run (execute()) gets a future that completes once the run is done, with its result, or with
+ * null right away when skipped; a queued one is started on its dispatch executor once a slot frees up. A
+ * blocking caller (executeBlocking()) that's queued waits for the slot itself and then runs on its own
+ * thread - handing the run to another thread and waiting on it would hold two threads per queued run,
+ * both from the same pool when the caller is a timer, and with the pool used up, none would be left to
+ * run it.
+ */
+public class ExecutionGate {
+    private final Function function;
+    private final int max;
+    private final Overflow overflow;
+    private final int queueSize;
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    private int running;
+
+    private ExecutionGate(Function function, int max, Overflow overflow, int queueSize) {
+        this.function = function;
+        this.max = max;
+        this.overflow = overflow;
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * "concurrency" is either a policy ("skip" or "queue", with a max of 1), a max (runs over it are
+     * skipped), or a map of both.
+     */
+    public static ExecutionGate parseGate(Function function, Map functionMap) throws APIException {
+        Object concurrencyObj = functionMap.get("concurrency");
+        if (concurrencyObj == null) {
+            return new ExecutionGate(function, 0, Overflow.SKIP, 1);
+        } else if (concurrencyObj instanceof Map) {
+            Map concurrencyMap = (Map) concurrencyObj;
+            return new ExecutionGate(function,
+                    Integer.parseInt(concurrencyMap.getOrDefault("max", 1).toString()),
+                    Overflow.valueOf(concurrencyMap.getOrDefault("overflow", "skip").toString().toUpperCase()),
+                    Math.max(1, Integer.parseInt(concurrencyMap.getOrDefault("queueSize", 1).toString())));
+        } else if (concurrencyObj instanceof Number) {
+            return new ExecutionGate(function, ((Number) concurrencyObj).intValue(), Overflow.SKIP, 1);
+        }
+
+        try {
+            return new ExecutionGate(function, 1, Overflow.valueOf(concurrencyObj.toString().toUpperCase()), 1);
+        } catch (IllegalArgumentException ex) {
+            throw new APIException("Invalid concurrency '" + concurrencyObj + "'");
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return max > 0;
+    }
+
+    public synchronized int getMax() {
+        return max;
+    }
+
+    public synchronized Overflow getOverflow() {
+        return overflow;
+    }
+
+    public synchronized int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Start the async run if there's a slot for it, otherwise skip or queue it.
+     *
+     * @param store    the run's variable store, null for scheduled runs - the only ones merged when queued
+     * @param run      starts the run, returning a future that completes once it's done
+     * @param dispatch where a queued run is started, once a slot frees up
+     */
+    public CompletableFuture<Integer> execute(VariableStore store, Supplier<CompletableFuture<Integer>> run, Executor dispatch) {
+        if (!isEnabled()) {
+            return run.get();
+        }
+
+        synchronized (this) {
+            if (running >= max) {
+                Pending queued = queue(store, run, dispatch);
+                return queued != null ? queued.future : CompletableFuture.completedFuture(null);
+            }
+            running++;
+        }
+        return start(run);
+    }
+
+    /**
+     * Run on the calling thread if there's a slot for it, otherwise skip it or wait for a slot to be
+     * handed over. A scheduled run merged into one already queued returns right away: that run does its
+     * work, and there's nothing to wait for its result for.
+     *
+     * @return the run's result, or null if it was skipped or merged
+     */
+    public Integer executeBlocking(VariableStore store, Supplier<Integer> run) throws InterruptedException {
+        if (!isEnabled()) {
+            return run.get();
+        }
+
+        Pending queued = null;
+        synchronized (this) {
+            if (running >= max) {
+                int queuedBefore = pending.size();
+                queued = queue(store, null, null);
+                if (pending.size() == queuedBefore) {
+                    // Skipped, or merged
+                    return null;
+                }
+            } else {
+                running++;
+            }
+        }
+
+        if (queued != null) {
+            try {
+                queued.turn.get();
+            } catch (InterruptedException ex) {
+                boolean removed;
+                synchronized (this) {
+                    removed = pending.remove(queued);
+                }
+                if (!removed) {
+                    // The slot was handed over as the wait was interrupted - pass it on
+                    done();
+                }
+                queued.future.complete(null);
+                throw ex;
+            } catch (ExecutionException ex) {
+                // Never completed exceptionally
+            }
+        }
+
+        try {
+            Integer ret = run.get();
+            if (queued != null) {
+                queued.future.complete(ret);
+            }
+            return ret;
+        } catch (Throwable ex) {
+            if (queued != null) {
+                queued.future.completeExceptionally(ex);
+            }
+            throw ex;
+        } finally {
+            done();
+        }
+    }
+
+    /**
+     * Queue a run, merge it into the scheduled run already queued, or skip it. Called with the lock held.
+     *
+     * @param run null for a blocking caller, who waits for the slot itself
+     * @return the run's place in the queue - a merged run's is the one it was merged into - or null if
+     * skipped
+     */
+    private Pending queue(VariableStore store, Supplier<CompletableFuture<Integer>> run, Executor dispatch) {
+        if (overflow == Overflow.QUEUE) {
+            if (store == null) {
+                for (Pending queued : pending) {
+                    if (queued.store == null) {
+                        function.getMetrics().coalesced();
+                        return queued;
+                    }
+                }
+            }
+            if (pending.size() < queueSize) {
+                Pending queued = new Pending(store, run, dispatch, run == null);
+                pending.add(queued);
+                return queued;
+            }
+        }
+        function.getMetrics().skipped();
+        return null;
+    }
+
+    private CompletableFuture<Integer> start(Supplier<CompletableFuture<Integer>> run) {
+        CompletableFuture<Integer> future;
+        try {
+            future = run.get();
+        } catch (Throwable ex) {
+            future = CompletableFuture.failedFuture(ex);
+        }
+        future.whenComplete((ret, ex) -> done());
+        return future;
+    }
+
+    private void done() {
+        Pending next;
+        synchronized (this) {
+            next = pending.poll();
+            if (next == null) {
+                running--;
+                return;
+            }
+            // The slot goes straight to the queued run
+        }
+
+        if (next.turn != null) {
+            // A blocking caller, waiting to run it on its own thread
+            next.turn.complete(null);
+            return;
+        }
+
+        try {
+            // Dispatched rather than run here, or back to back queued runs would nest on this thread's stack
+            next.dispatch.execute(() -> start(next.run).whenComplete((ret, ex) -> {
+                if (ex != null) {
+                    next.future.completeExceptionally(ex);
+                } else {
+                    next.future.complete(ret);
+                }
+            }));
+        } catch (Throwable ex) {
+            next.future.completeExceptionally(ex);
+            done();
+        }
+    }
+
+    private static class Pending {
+        private final CompletableFuture<Integer> future = new CompletableFuture<>();
+        // Completed when the slot is handed to a blocking caller, null for async runs
+        private final CompletableFuture<Void> turn;
+        private final VariableStore store;
+        private final Supplier<CompletableFuture<Integer>> run;
+        private final Executor dispatch;
+
+        private Pending(VariableStore store, Supplier<CompletableFuture<Integer>> run, Executor dispatch, boolean blocking) {
+            this.turn = blocking ? new CompletableFuture<>() : null;
+            this.store = store;
+            this.run = run;
+            this.dispatch = dispatch;
+        }
+    }
+
+    public enum Overflow {
+        SKIP,
+        QUEUE
+    }
+}
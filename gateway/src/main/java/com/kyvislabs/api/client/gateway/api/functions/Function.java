@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Function implements VariableStore {
@@ -31,8 +32,11 @@ public class Function implements VariableStore {
     private boolean redirectNoHeaders;
     private boolean hasExecuted;
     private List<Integer> allowedErrorCodes;
+    private ResponseCache cache;
+    private ExecutionGate gate;
     private Map<String, Object> localVariables;
     private FunctionStatus status;
+    private FunctionMetrics metrics;
 
     public Function(API api, String name) {
         this(api, name, null);
@@ -50,6 +54,7 @@ public class Function implements VariableStore {
         this.localVariables = new ConcurrentHashMap<>();
         this.hasExecuted = false;
         this.allowedErrorCodes = Collections.synchronizedList(new ArrayList<>());
+        this.metrics = new FunctionMetrics(this);
     }
 
     public void parse(Integer version, Map yamlMap) throws APIException {
@@ -86,6 +91,8 @@ public class Function implements VariableStore {
             }
 
             redirectNoHeaders = (boolean) yamlMap.getOrDefault("redirectNoHeaders", false);
+            cache = ResponseCache.parseCache(yamlMap);
+            gate = ExecutionGate.parseGate(this, yamlMap);
 
             if (yamlMap.containsKey("allowedErrorCodes")) {
                 List codesList = (List) yamlMap.get("allowedErrorCodes");
@@ -189,6 +196,14 @@ public class Function implements VariableStore {
         return redirectNoHeaders;
     }
 
+    public synchronized ResponseCache getCache() {
+        return cache;
+    }
+
+    public synchronized ExecutionGate getGate() {
+        return gate;
+    }
+
     public synchronized List<Integer> getAllowedErrorCodes() {
         return allowedErrorCodes;
     }
@@ -201,6 +216,10 @@ public class Function implements VariableStore {
         this.hasExecuted = true;
     }
 
+    public synchronized FunctionMetrics getMetrics() {
+        return metrics;
+    }
+
     public synchronized Map<String, Object> getLocalVariables() {
         return localVariables;
     }
@@ -271,16 +290,28 @@ public class Function implements VariableStore {
         throw new APIException("Variable '" + name + "' doesn't exist");
     }
 
+    /**
+     * Runs the function on the calling thread as part of another run (function actions, webhooks), so
+     * without going through its ExecutionGate.
+     */
     public Integer callBlocking(VariableStore store) {
-        return (new FunctionExecutor(logger, this, store)).call();
+        return (new FunctionExecutor(logger, this, store, false)).call();
+    }
+
+    public void executeBlocking(VariableStore store, boolean gated) {
+        (new FunctionExecutor(logger, this, store, gated)).run();
     }
 
-    public void executeBlocking(VariableStore store) {
-        (new FunctionExecutor(logger, this, store)).run();
+    /**
+     * Runs the function through the staged async pipeline. The future completes with the response
+     * status code, or null if the run failed or was skipped - see FunctionExecutor.executeAsync().
+     */
+    public CompletableFuture<Integer> executeAsync(VariableStore store) {
+        return executeAsync(store, true);
     }
 
-    public void executeAsync(VariableStore store) {
-        api.getGatewayContext().getExecutionManager().executeOnce(new FunctionExecutor(logger, this, store));
+    public CompletableFuture<Integer> executeAsync(VariableStore store, boolean gated) {
+        return (new FunctionExecutor(logger, this, store, gated)).executeAsync();
     }
 
     public enum Method {
@@ -296,7 +327,11 @@ public class Function implements VariableStore {
         NONE("none"),
         JSON("application/json"),
         XML("text/xml"),
-        BYTES("application/octet-stream");
+        BYTES("application/octet-stream"),
+        // Written straight to a temporary file (see StoreFileManager.createResponseFile()), whose path is the response the actions get. The file is
+        // deleted once they've run. Unlike BYTES, the body is never held in memory - for images,
+        // documents and other large binary payloads handled by storefile
+        FILE("application/octet-stream");
 
         private String contentType;
 
@@ -3,6 +3,9 @@ package com.kyvislabs.api.client.gateway.api.functions;
 import com.kyvislabs.api.client.common.exceptions.APIException;
 import com.kyvislabs.api.client.gateway.api.API;
 import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
+import com.kyvislabs.api.client.gateway.api.valuestring.command.ResponseDocuments;
+import com.kyvislabs.api.client.gateway.managers.ExecutorManager;
+import com.kyvislabs.api.client.gateway.managers.TagWriteBatch;
 import net.dongliu.requests.HttpHeaders;
 import net.dongliu.requests.RawResponse;
 import net.dongliu.requests.RequestBuilder;
@@ -12,33 +15,54 @@ import net.dongliu.requests.exception.TooManyRedirectsException;
 import org.apache.commons.codec.binary.Base64;
 import org.slf4j.Logger;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 public class FunctionExecutor implements Runnable, Callable<Integer> {
     private Logger logger;
     private Function function;
     private VariableStore store;
+    private boolean gated;
 
     public FunctionExecutor(Logger logger, Function function, VariableStore store) {
+        this(logger, function, store, true);
+    }
+
+    /**
+     * @param gated whether the run goes through the function's ExecutionGate - false for runs that are
+     *              part of another one (depends, function actions), see ExecutionGate
+     */
+    public FunctionExecutor(Logger logger, Function function, VariableStore store, boolean gated) {
         this.logger = logger;
         this.function = function;
         this.store = store;
+        this.gated = gated;
     }
 
-    private int _execute() throws APIException {
-        API api = function.getApi();
-
-        long setupStartTime = System.currentTimeMillis();
+    /**
+     * The function this one depends on, if it has to run first.
+     */
+    private Function getDependsFunction() throws APIException {
         if (function.getDepends() != null) {
-            Function dependsFunction = api.getFunctions().getFunction(function.getDepends());
+            Function dependsFunction = function.getApi().getFunctions().getFunction(function.getDepends());
             if (function.isDependsAlways() || !dependsFunction.isHasExecuted()) {
-                dependsFunction.executeBlocking(store);
+                return dependsFunction;
             }
         }
+        return null;
+    }
+
+    private Exchange prepare(long setupStartTime) throws APIException {
+        API api = function.getApi();
 
         Map<String, Object> headers = api.getHeaders().getHeadersMap(store);
         headers.putAll(api.getAuthType().getHeadersMap());
@@ -46,9 +70,16 @@ public class FunctionExecutor implements Runnable, Callable<Integer> {
         headers.putAll(function.getBody().getHeadersMap());
 
         String url = function.getUrl().getValue(store);
+        List<net.dongliu.requests.Parameter<Object>> params = Parameter.getParameters(function.getParameters(), store);
+
+        String cacheKey = null;
+        if (function.getCache() != null) {
+            cacheKey = url + params.stream().map(param -> param.name() + "=" + param.value()).collect(Collectors.joining("&", "?", ""));
+            function.getCache().addConditionalHeaders(cacheKey, headers);
+        }
+
         RequestBuilder builder = function.getApi().getRequestBuilder(url, function.getMethod());
         builder.headers(headers);
-        List<net.dongliu.requests.Parameter<Object>> params = Parameter.getParameters(function.getParameters(), store);
         builder.params(params);
         String body = function.getBody().build(builder, store);
 
@@ -56,80 +87,160 @@ public class FunctionExecutor implements Runnable, Callable<Integer> {
             builder.followRedirect(false);
         }
 
-        long setupEndTime = System.currentTimeMillis();
+        Exchange exchange = new Exchange(builder, setupStartTime);
+        exchange.cacheKey = cacheKey;
+        exchange.setupEndTime = System.currentTimeMillis();
 
         logger.debug(function.getApi().getName() + " request [method=" + function.getMethod().toString() + ", url=" + url + ", headers=" + headers.keySet().stream()
                 .map(key -> key + "=" + headers.get(key).toString())
                 .collect(Collectors.joining(", ", "{", "}")) + ", params=" + params.stream()
                 .map(key -> key.name() + "=" + key.value().toString()).collect(Collectors.joining(", ", "{", "}")) + ", body=" + body + "]");
 
-        long callStartTime = System.currentTimeMillis();
+        return exchange;
+    }
 
-        RawResponse res = builder.send();
+    private RawResponse send(Exchange exchange) throws APIException {
+        RawResponse res = exchange.builder.send();
         int statusCode = res.statusCode();
 
         if (function.isRedirectNoHeaders() && isRedirect(statusCode)) {
-            boolean found = false;
-            int redirectTimes = 0;
-            final int maxRedirectTimes = 5;
-            while (redirectTimes++ < maxRedirectTimes) {
-                String location = res.getHeader(HttpHeaders.NAME_LOCATION);
-                if (location == null) {
-                    throw new RequestsException("Redirect location not found");
+            try {
+                boolean found = false;
+                int redirectTimes = 0;
+                final int maxRedirectTimes = 5;
+                while (redirectTimes++ < maxRedirectTimes) {
+                    String location = res.getHeader(HttpHeaders.NAME_LOCATION);
+                    if (location == null) {
+                        throw new RequestsException("Redirect location not found");
+                    }
+
+                    Function.Method method = function.getMethod();
+                    if (statusCode == StatusCodes.MOVED_PERMANENTLY || statusCode == StatusCodes.FOUND || statusCode == StatusCodes.SEE_OTHER) {
+                        method = Function.Method.GET;
+                    }
+
+                    RequestBuilder builder = function.getApi().getRequestBuilder(location, method);
+                    String body;
+                    if (statusCode == StatusCodes.MOVED_PERMANENTLY || statusCode == StatusCodes.FOUND || statusCode == StatusCodes.SEE_OTHER) {
+                        body = null;
+                    } else {
+                        body = function.getBody().build(builder, store);
+                    }
+                    builder.followRedirect(false);
+
+                    logger.debug(function.getApi().getName() + " redirect [method=" + method.toString() + ", url=" + location + ", body=" + body + "]");
+
+                    // Done with this hop - closing it also frees its rateLimit maxInFlight slot for the next
+                    res.discardBody();
+                    res = builder.send();
+                    statusCode = res.statusCode();
+                    if (!isRedirect(statusCode)) {
+                        found = true;
+                        break;
+                    }
                 }
 
-                Function.Method method = function.getMethod();
-                if (statusCode == StatusCodes.MOVED_PERMANENTLY || statusCode == StatusCodes.FOUND || statusCode == StatusCodes.SEE_OTHER) {
-                    method = Function.Method.GET;
+                if (!found) {
+                    throw new TooManyRedirectsException(maxRedirectTimes);
                 }
-
-                builder = function.getApi().getRequestBuilder(location, method);
-                if (statusCode == StatusCodes.MOVED_PERMANENTLY || statusCode == StatusCodes.FOUND || statusCode == StatusCodes.SEE_OTHER) {
-                    body = null;
-                } else {
-                    body = function.getBody().build(builder, store);
+            } catch (RuntimeException | APIException ex) {
+                // Not handed on, so closed here: with a rate limit, its maxInFlight slot is only given
+                // back once the body is read or closed
+                try {
+                    res.close();
+                } catch (RuntimeException closeEx) {
+                    ex.addSuppressed(closeEx);
                 }
-                builder.followRedirect(false);
+                throw ex;
+            }
+        }
 
-                logger.debug(function.getApi().getName() + " redirect [method=" + method.toString() + ", url=" + location + ", body=" + body + "]");
+        return res;
+    }
 
-                res = builder.send();
-                statusCode = res.statusCode();
-                if (!isRedirect(statusCode)) {
-                    found = true;
-                    break;
-                }
+    private CompletableFuture<RawResponse> sendAsync(Exchange exchange) {
+        ExecutorManager executors = function.getApi().getExecutorManager();
+        if (function.isRedirectNoHeaders()) {
+            // The manual redirect loop in send() blocks between hops - run it whole on the I/O pool
+            return CompletableFuture.supplyAsync(() -> unchecked(() -> send(exchange)), executors.getIoExecutor());
+        }
+        return exchange.builder.sendAsync(executors.getIoExecutor());
+    }
+
+    private void read(Exchange exchange, RawResponse res) {
+        exchange.statusCode = res.statusCode();
+        boolean success = exchange.statusCode >= 200 && exchange.statusCode <= 299;
+
+        if (function.getResponseType().equals(Function.ResponseType.FILE) && success) {
+            // Straight from the connection to disk - actions get the file's path, see Function.ResponseType.FILE
+            exchange.file = createResponseFile();
+            try {
+                function.getMetrics().responseSize(res.transferToFile(exchange.file));
+            } catch (RuntimeException ex) {
+                deleteResponseFile(exchange);
+                throw ex;
             }
+            exchange.response = exchange.file.toString();
+        } else if (function.getResponseType().equals(Function.ResponseType.BYTES)) {
+            byte[] bytes = res.readToBytes();
+            function.getMetrics().responseSize(bytes.length);
+            exchange.response = Base64.encodeBase64String(bytes);
+            logger.debug("Base64 encoding response");
+        } else {
+            exchange.response = res.readToText();
+            function.getMetrics().responseSize(exchange.response.length());
+        }
+
+        try {
+            exchange.contentType = res.getHeader("Content-Type");
+        } catch (Throwable ex) {
+            exchange.contentType = function.getResponseType().getContentType();
+        }
+
+        if (exchange.cacheKey != null) {
+            exchange.validators = new ResponseCache.Validators(res.getHeader(ResponseCache.ETAG), res.getHeader(ResponseCache.LAST_MODIFIED));
+        }
+    }
 
-            if (!found) {
-                throw new TooManyRedirectsException(maxRedirectTimes);
+    private Path createResponseFile() {
+        try {
+            return function.getApi().getStoreFileManager().createResponseFile(function.getApi().getName());
+        } catch (IOException ex) {
+            throw new RequestsException(ex);
+        }
+    }
+
+    private void deleteResponseFile(Exchange exchange) {
+        if (exchange.file != null) {
+            try {
+                Files.deleteIfExists(exchange.file);
+            } catch (IOException ex) {
+                logger.warn("Error deleting response file '" + exchange.file + "'", ex);
             }
+            exchange.file = null;
         }
+    }
 
-        long callEndTime = System.currentTimeMillis();
+    private int process(Exchange exchange) throws APIException {
+        int statusCode = exchange.statusCode;
+        String response = exchange.response;
+        String contentType = exchange.contentType;
 
         boolean success = statusCode >= 200 && statusCode <= 299;
         boolean error = statusCode >= 400;
+        // Only answered to our own conditional request - the last response is still current
+        boolean notModified = statusCode == StatusCodes.NOT_MODIFIED && exchange.cacheKey != null && function.getCache().contains(exchange.cacheKey);
+        if (notModified) {
+            success = true;
+        }
 
         if (error && function.getAllowedErrorCodes().contains(statusCode)) {
             success = true;
             error = false;
         }
 
-        String response = null;
-
-        if (function.getResponseType().equals(Function.ResponseType.BYTES)) {
-            response = Base64.encodeBase64String(res.readToBytes());
-            logger.debug("Base64 encoding response");
-        } else {
-            response = res.readToText();
-        }
-
-        String contentType = null;
-        try {
-            contentType = res.getHeader("Content-Type");
-        } catch (Throwable ex) {
-            contentType = function.getResponseType().getContentType();
+        if (error) {
+            function.getMetrics().error(statusCode);
         }
 
         logger.debug(function.getApi().getName() + " response [statusCode=" + statusCode + ", contentType=" + contentType + ", response=" + response + "]");
@@ -138,32 +249,171 @@ public class FunctionExecutor implements Runnable, Callable<Integer> {
         function.setStatus(success ? Function.FunctionStatus.SUCCESS : Function.FunctionStatus.FAILED);
         function.updateStatusTag("Response", error ? response : "");
 
+        // Only scheduled runs (no store) tell an adaptive schedule anything about how often the data changes
+        if (store == null && !error && function.getSchedule() != null && function.getSchedule().getType().equals(Schedule.ScheduleType.ADAPTIVE)) {
+            function.getSchedule().adapt(notModified ? null : Actions.digest(statusCode, getContent(exchange)));
+        }
+
         long processStartTime = 0;
         long processEndTime = 0;
-        if (success) {
+        if (notModified) {
+            logger.debug(function.getApi().getName() + " response not modified, skipping actions");
+            function.getMetrics().notModified();
+        } else if (success) {
             processStartTime = System.currentTimeMillis();
-            response = function.getResponseFormat().format(store, response);
-            function.getActions().handleResponse(store, statusCode, contentType, response);
+            try (ResponseDocuments documents = ResponseDocuments.open()) {
+                if (exchange.file == null) {
+                    response = function.getResponseFormat().format(store, response);
+                }
+                function.getActions().handleResponse(store, statusCode, contentType, response);
+            }
             processEndTime = System.currentTimeMillis();
         }
 
-        long setupTime = setupEndTime - setupStartTime;
-        long callTime = callEndTime - callStartTime;
+        // Validators are only kept once the response has been handled without error, otherwise a 304
+        // would skip the actions that never got to write it
+        if (exchange.cacheKey != null && !notModified) {
+            function.getCache().update(exchange.cacheKey, success ? exchange.validators : null);
+        }
+
+        long setupTime = exchange.setupEndTime - exchange.setupStartTime;
+        long callTime = exchange.callEndTime - exchange.callStartTime;
         long processTime = processEndTime - processStartTime;
         function.updateStatusTag("LastExecutionSetupDuration", setupTime);
         function.updateStatusTag("LastExecutionCallDuration", callTime);
         function.updateStatusTag("LastExecutionProcessDuration", processTime);
 
+        FunctionMetrics metrics = function.getMetrics();
+        metrics.setup(setupTime);
+        metrics.request(callTime);
+        if (success && !notModified) {
+            metrics.process(processTime);
+        }
+
         function.setHasExecuted();
 
         return statusCode;
     }
 
+    /**
+     * What a response is compared by: its body, or for a response streamed to a file (where the body is
+     * the file's path) its validators - without validators such a response always counts as changed.
+     */
+    private static String getContent(Exchange exchange) {
+        if (exchange.file != null && exchange.validators != null && (exchange.validators.etag() != null || exchange.validators.lastModified() != null)) {
+            return exchange.validators.etag() + "|" + exchange.validators.lastModified();
+        }
+        return exchange.response;
+    }
+
+    private int _execute() throws APIException {
+        long setupStartTime = System.currentTimeMillis();
+        Function dependsFunction = getDependsFunction();
+        if (dependsFunction != null) {
+            dependsFunction.executeBlocking(store, false);
+        }
+
+        Exchange exchange = prepare(setupStartTime);
+
+        exchange.callStartTime = System.currentTimeMillis();
+        RawResponse res = send(exchange);
+        exchange.callEndTime = System.currentTimeMillis();
+
+        try {
+            read(exchange, res);
+            return process(exchange);
+        } finally {
+            deleteResponseFile(exchange);
+        }
+    }
+
+    /**
+     * Same steps as _execute(), but as a chain of stages on the ExecutorManager pools: setup and
+     * processing on the process pool, the body read on the I/O pool, and the send itself handed to the
+     * API's executor - with httpClient: httpclient no thread at all waits on the network while the
+     * request is in flight.
+     */
+    private CompletableFuture<Integer> _executeAsync(TagWriteBatch batch) {
+        ExecutorManager executors = function.getApi().getExecutorManager();
+        long setupStartTime = System.currentTimeMillis();
+
+        CompletableFuture<?> depends;
+        try {
+            Function dependsFunction = getDependsFunction();
+            depends = dependsFunction == null ? CompletableFuture.completedFuture(null) : dependsFunction.executeAsync(store, false);
+        } catch (APIException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        return depends
+                .thenApplyAsync(ignored -> unchecked(() -> prepare(setupStartTime)), executors.getProcessExecutor())
+                .thenCompose(exchange -> {
+                    exchange.callStartTime = System.currentTimeMillis();
+                    return sendAsync(exchange)
+                            .thenApply(res -> {
+                                exchange.callEndTime = System.currentTimeMillis();
+                                return res;
+                            })
+                            .thenApplyAsync(res -> {
+                                read(exchange, res);
+                                return exchange;
+                            }, executors.getIoExecutor());
+                })
+                .thenApplyAsync(exchange -> {
+                    try {
+                        return unchecked(() -> batch.call(() -> process(exchange)));
+                    } finally {
+                        deleteResponseFile(exchange);
+                    }
+                }, executors.getProcessExecutor());
+    }
+
     private static boolean isRedirect(int status) {
         return status == StatusCodes.MULTIPLE_CHOICES || status == StatusCodes.MOVED_PERMANENTLY || status == StatusCodes.FOUND || status == StatusCodes.SEE_OTHER
                 || status == StatusCodes.TEMPORARY_REDIRECT || status == StatusCodes.PERMANENT_REDIRECT;
     }
 
+    private void begin() {
+        function.updateStatusTag("LastExecution", new Date());
+        function.updateStatusTag("State", Function.State.RUNNING.getDisplay());
+    }
+
+    private void failed(Throwable ex) {
+        logger.error("Error with request: " + ex.getMessage(), ex);
+        function.getMetrics().exception();
+        function.setStatus(Function.FunctionStatus.FAILED);
+        function.updateStatusTag("Response", ex.toString());
+    }
+
+    private void finish(long functionStartTime) {
+        function.updateStatusTag("State", Function.State.PENDING.getDisplay());
+        function.updateStatusTag("NextExecution", function.getNextExecution());
+
+        long functionEndTime = System.currentTimeMillis();
+        long functionTotalTime = functionEndTime - functionStartTime;
+        function.updateStatusTag("LastExecutionDuration", functionTotalTime);
+        function.getMetrics().run(functionTotalTime);
+    }
+
+    /**
+     * execute() through the function's ExecutionGate, waiting for a queued run's turn. Null if the run was
+     * skipped or merged.
+     */
+    private Integer executeGated() {
+        ExecutionGate gate = function.getGate();
+        if (!gated || gate == null || !gate.isEnabled()) {
+            return execute();
+        }
+
+        // Queued, the run waits for its slot and then runs here, on the caller's thread
+        try {
+            return gate.executeBlocking(store, this::execute);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
     private Integer execute() {
         Integer ret = null;
 
@@ -171,32 +421,28 @@ public class FunctionExecutor implements Runnable, Callable<Integer> {
             long functionStartTime = System.currentTimeMillis();
             API api = function.getApi();
 
-            function.updateStatusTag("LastExecution", new Date());
-            function.updateStatusTag("State", Function.State.RUNNING.getDisplay());
+            begin();
 
-            try {
-                if (!api.getAuthType().isAuthenticated()) {
-                    api.getAuthType().authenticate(store);
-                }
+            // Everything after the Running state is written out in one go once the run is done
+            try (TagWriteBatch batch = api.getTagManager().beginBatch()) {
+                try {
+                    if (!api.getAuthType().isAuthenticated()) {
+                        api.getAuthType().authenticate(store);
+                    }
 
-                // Handle an unauthorized response, login, and try again
-                ret = _execute();
-                if (ret == 401) {
-                    api.getAuthType().authenticate(store);
+                    // Handle an unauthorized response, login, and try again
                     ret = _execute();
+                    if (ret == 401) {
+                        function.getMetrics().reauthentication();
+                        api.getAuthType().authenticate(store);
+                        ret = _execute();
+                    }
+                } catch (Throwable ex) {
+                    failed(ex);
                 }
-            } catch (Throwable ex) {
-                logger.error("Error with request: " + ex.getMessage(), ex);
-                function.setStatus(Function.FunctionStatus.FAILED);
-                function.updateStatusTag("Response", ex.toString());
-            }
-
-            function.updateStatusTag("State", Function.State.PENDING.getDisplay());
-            function.updateStatusTag("NextExecution", function.getNextExecution());
 
-            long functionEndTime = System.currentTimeMillis();
-            long functionTotalTime = functionEndTime - functionStartTime;
-            function.updateStatusTag("LastExecutionDuration", functionTotalTime);
+                finish(functionStartTime);
+            }
         } catch (Throwable ex) {
             logger.error("Error executing function: " + ex.getMessage(), ex);
         }
@@ -204,13 +450,126 @@ public class FunctionExecutor implements Runnable, Callable<Integer> {
         return ret;
     }
 
+    /**
+     * Non-blocking counterpart of execute(): same status tags, authentication and 401 retry, but the
+     * returned future completes (never exceptionally - failures are logged and reported on the status
+     * tags, with a null result, exactly as execute() does) once the whole run is done, without parking
+     * the calling thread or a pooled one on network I/O. Goes through the function's ExecutionGate: a
+     * skipped run completes with null right away, a queued one once it has run.
+     */
+    public CompletableFuture<Integer> executeAsync() {
+        ExecutionGate gate = function.getGate();
+        if (!gated || gate == null || !gate.isEnabled()) {
+            return executeAsyncUngated();
+        }
+        // Starting an async run only hands it off, so a queued one can start on whichever thread frees the slot
+        return gate.execute(store, this::executeAsyncUngated, Runnable::run);
+    }
+
+    private CompletableFuture<Integer> executeAsyncUngated() {
+        API api = function.getApi();
+        ExecutorManager executors = api.getExecutorManager();
+        long functionStartTime = System.currentTimeMillis();
+        // Same as execute(), but the run hops between threads so the batch is bound per stage
+        TagWriteBatch batch = api.getTagManager().newBatch();
+
+        return CompletableFuture.supplyAsync(() -> unchecked(() -> {
+                    begin();
+                    return batch.call(() -> {
+                        if (!api.getAuthType().isAuthenticated()) {
+                            api.getAuthType().authenticate(store);
+                        }
+                        return null;
+                    });
+                }), executors.getProcessExecutor())
+                .thenCompose(ignored -> _executeAsync(batch))
+                .thenCompose(ret -> {
+                    // Handle an unauthorized response, login, and try again
+                    if (ret == 401) {
+                        function.getMetrics().reauthentication();
+                        return CompletableFuture.supplyAsync(() -> unchecked(() -> batch.call(() -> {
+                            api.getAuthType().authenticate(store);
+                            return null;
+                        })), executors.getProcessExecutor()).thenCompose(ignored -> _executeAsync(batch));
+                    }
+                    return CompletableFuture.completedFuture(ret);
+                })
+                .exceptionally(ex -> {
+                    try {
+                        batch.call(() -> {
+                            failed(unwrap(ex));
+                            return null;
+                        });
+                    } catch (Throwable t) {
+                        logger.error("Error executing function: " + t.getMessage(), t);
+                    }
+                    return null;
+                })
+                .thenApply(ret -> {
+                    try {
+                        batch.call(() -> {
+                            finish(functionStartTime);
+                            return null;
+                        });
+                    } catch (Throwable ex) {
+                        logger.error("Error executing function: " + ex.getMessage(), ex);
+                    } finally {
+                        try {
+                            batch.flush();
+                        } catch (Throwable ex) {
+                            logger.error("Error writing tags: " + ex.getMessage(), ex);
+                        }
+                    }
+                    return ret;
+                });
+    }
+
+    private static <T> T unchecked(Callable<T> callable) {
+        try {
+            return callable.call();
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new CompletionException(ex);
+        }
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        while ((ex instanceof CompletionException || ex instanceof ExecutionException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        return ex;
+    }
+
     @Override
     public void run() {
-        execute();
+        executeGated();
     }
 
     @Override
     public Integer call() {
-        return execute();
+        return executeGated();
+    }
+
+    /**
+     * State of one request/response round trip, handed from stage to stage.
+     */
+    private static class Exchange {
+        private final RequestBuilder builder;
+        private final long setupStartTime;
+        private long setupEndTime;
+        private long callStartTime;
+        private long callEndTime;
+        private int statusCode;
+        private String response;
+        private String contentType;
+        private String cacheKey;
+        private ResponseCache.Validators validators;
+        private Path file;
+
+        private Exchange(RequestBuilder builder, long setupStartTime) {
+            this.builder = builder;
+            this.setupStartTime = setupStartTime;
+        }
     }
 }
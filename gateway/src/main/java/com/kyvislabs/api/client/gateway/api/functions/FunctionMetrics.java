@@ -0,0 +1,139 @@
+package com.kyvislabs.api.client.gateway.api.functions;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.kyvislabs.api.client.gateway.api.API;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-function timers, histograms and counters in the gateway MetricRegistry, under
+ * API.getMetricName(api, "function.<logger name>.<metric>"). The status tags only ever hold the last
+ * run's durations; these keep the distribution (the timers' snapshots give p50/p99/p999) and the rates
+ * (each timer is also a meter, so "runs" is the function's throughput).
+ * <p>
+ * Everything is fetched with the registry's get-or-add methods, so a function that's re-created by a
+ * reload picks up the same metrics; they're removed together with the API's own in
+ * API.unregisterMetrics() (see removeAll()).
+ */
+public class FunctionMetrics {
+    private static final String PREFIX = "function";
+
+    private final MetricRegistry registry;
+    private final String prefix;
+    private final Timer runs;
+    private final Timer setup;
+    private final Timer requests;
+    private final Timer process;
+    private final Histogram responseSize;
+    private final Counter retries;
+    private final Counter reauthentications;
+    private final Counter exceptions;
+    private final Counter notModified;
+    private final Counter unchanged;
+    private final Counter skipped;
+    private final Counter coalesced;
+
+    public FunctionMetrics(Function function) {
+        API api = function.getApi();
+        this.registry = api.getGatewayContext().getMetricRegistry();
+        this.prefix = API.getMetricName(api.getName(), MetricRegistry.name(PREFIX, function.getLoggerName()));
+        this.runs = registry.timer(name("runs"));
+        this.setup = registry.timer(name("setup"));
+        this.requests = registry.timer(name("requests"));
+        this.process = registry.timer(name("process"));
+        this.responseSize = registry.histogram(name("response.size"));
+        this.retries = registry.counter(name("retries"));
+        this.reauthentications = registry.counter(name("reauthentications"));
+        this.exceptions = registry.counter(name("errors.exception"));
+        this.notModified = registry.counter(name("notModified"));
+        this.unchanged = registry.counter(name("unchanged"));
+        this.skipped = registry.counter(name("skipped"));
+        this.coalesced = registry.counter(name("coalesced"));
+    }
+
+    /**
+     * Removes the metrics of every function of the given API.
+     */
+    public static void removeAll(MetricRegistry registry, String apiName) {
+        String prefix = API.getMetricName(apiName, PREFIX) + ".";
+        registry.removeMatching(MetricFilter.startsWith(prefix));
+    }
+
+    private String name(String metric) {
+        return MetricRegistry.name(prefix, metric);
+    }
+
+    public void run(long millis) {
+        runs.update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void setup(long millis) {
+        setup.update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void request(long millis) {
+        requests.update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    public void process(long millis) {
+        process.update(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Size of the response body - characters for text responses, bytes for BYTES responses.
+     */
+    public void responseSize(long size) {
+        responseSize.update(size);
+    }
+
+    public void retry() {
+        retries.inc();
+    }
+
+    public void reauthentication() {
+        reauthentications.inc();
+    }
+
+    public void exception() {
+        exceptions.inc();
+    }
+
+    /**
+     * A 304 answer to a cached request - see ResponseCache.
+     */
+    public void notModified() {
+        notModified.inc();
+    }
+
+    /**
+     * A response identical to the last one, where skipIfUnchanged actions were skipped - see Actions.
+     */
+    public void unchanged() {
+        unchanged.inc();
+    }
+
+    /**
+     * A run not started because the function was already running - see ExecutionGate.
+     */
+    public void skipped() {
+        skipped.inc();
+    }
+
+    /**
+     * A run merged into one already queued behind a running one - see ExecutionGate.
+     */
+    public void coalesced() {
+        coalesced.inc();
+    }
+
+    /**
+     * An error status code that wasn't in allowedErrorCodes. One counter per code, created on first use.
+     */
+    public void error(int statusCode) {
+        registry.counter(name("errors." + statusCode)).inc();
+    }
+}
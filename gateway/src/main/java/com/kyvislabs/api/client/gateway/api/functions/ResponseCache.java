@@ -0,0 +1,89 @@
+package com.kyvislabs.api.client.gateway.api.functions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Validators (ETag / Last-Modified) of the last successfully handled response, per request, so the next
+ * run can ask the server for the body only if it changed. A 304 Not Modified then skips the response
+ * format, the actions and their tag writes entirely (see FunctionExecutor.process()).
+ * <p>
+ * Entries are keyed by the rendered URL and parameters - a function whose URL comes from variables makes
+ * a different request per value - and bounded to maxEntries, least recently used evicted first. They're
+ * only kept in memory on purpose: after a gateway restart the first run has to fetch and write everything
+ * again anyway, since nothing guarantees the tags still hold what that response produced.
+ */
+public class ResponseCache {
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+
+    private final int maxEntries;
+    private final Map<String, Validators> entries;
+
+    public ResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Validators> eldest) {
+                return size() > ResponseCache.this.maxEntries;
+            }
+        };
+    }
+
+    public static ResponseCache parseCache(Map functionMap) {
+        Object cacheObj = functionMap.getOrDefault("cache", false);
+        if (cacheObj instanceof Map) {
+            Map cacheMap = (Map) cacheObj;
+            if (!(boolean) cacheMap.getOrDefault("enabled", true)) {
+                return null;
+            }
+            return new ResponseCache(Integer.parseInt(cacheMap.getOrDefault("maxEntries", 100).toString()));
+        } else if (Boolean.parseBoolean(cacheObj.toString())) {
+            return new ResponseCache(100);
+        }
+        return null;
+    }
+
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Adds the conditional request headers for the given request, if a response to it has been handled before.
+     */
+    public synchronized void addConditionalHeaders(String key, Map<String, Object> headers) {
+        Validators validators = entries.get(key);
+        if (validators != null) {
+            if (validators.etag() != null) {
+                headers.put(IF_NONE_MATCH, validators.etag());
+            }
+            if (validators.lastModified() != null) {
+                headers.put(IF_MODIFIED_SINCE, validators.lastModified());
+            }
+        }
+    }
+
+    /**
+     * Called once a response has been fully handled. Without validators there's nothing to revalidate
+     * with, so any older entry for the request is dropped.
+     */
+    public synchronized void update(String key, Validators validators) {
+        if (validators == null || (validators.etag() == null && validators.lastModified() == null)) {
+            entries.remove(key);
+        } else {
+            entries.put(key, validators);
+        }
+    }
+
+    public synchronized boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public record Validators(String etag, String lastModified) {}
+}
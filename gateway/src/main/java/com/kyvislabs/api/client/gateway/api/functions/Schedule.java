@@ -7,13 +7,21 @@ import com.inductiveautomation.ignition.common.tags.model.event.TagChangeEvent;
 import com.inductiveautomation.ignition.common.tags.model.event.TagChangeListener;
 import com.inductiveautomation.ignition.common.tags.paths.parser.TagPathParser;
 import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.API;
+import com.kyvislabs.api.client.gateway.api.Scheduling;
 import com.kyvislabs.api.client.gateway.api.functions.actions.condition.Case;
-import it.sauronsoftware.cron4j.Scheduler;
+import com.kyvislabs.api.client.gateway.managers.CronManager;
+import com.kyvislabs.api.client.gateway.managers.ExecutorManager;
 import org.slf4j.Logger;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 public class Schedule implements TagChangeListener {
@@ -21,23 +29,49 @@ public class Schedule implements TagChangeListener {
     private ScheduleType type;
     private int duration;
     private TimeUnit unit;
+    // Null when not set on the function, falling back to the API's scheduling settings
+    private Boolean spread;
+    private Integer jitter;
+    // ADAPTIVE: the interval moves between duration (the minimum) and maxDuration
+    private int maxDuration;
+    private double backoff;
+    private long interval;
+    private byte[] lastDigest;
     private String cron;
     private String tagPath;
     private Case.ConditionOperator operator;
     private Object value;
 
     private FunctionExecutor executor;
+    private boolean async;
+    private boolean virtualThreads;
+    private ExecutorManager executors;
+    private CronManager cronManager;
+    private String cronTaskId;
+    private volatile boolean stopped;
+    private ScheduledExecutorService scheduledExecutorService;
     private ScheduledFuture scheduledFuture;
-    private Scheduler cronScheduler;
 
     public Schedule() {
         this.type = ScheduleType.MANUAL;
     }
 
-    public Schedule(int duration, TimeUnit unit) {
+    public Schedule(int duration, TimeUnit unit, Boolean spread, Integer jitter) {
         this.type = ScheduleType.TIMER;
         this.duration = duration;
         this.unit = unit;
+        this.spread = spread;
+        this.jitter = jitter;
+    }
+
+    public Schedule(int minDuration, int maxDuration, TimeUnit unit, double backoff, Boolean spread, Integer jitter) {
+        this.type = ScheduleType.ADAPTIVE;
+        this.duration = minDuration;
+        this.maxDuration = maxDuration;
+        this.unit = unit;
+        this.backoff = backoff;
+        this.spread = spread;
+        this.jitter = jitter;
     }
 
     public Schedule(String cron) {
@@ -56,10 +90,25 @@ public class Schedule implements TagChangeListener {
         if (functionMap.containsKey("schedule")) {
             Map scheduleMap = (Map) functionMap.get("schedule");
             ScheduleType type = ScheduleType.valueOf(scheduleMap.getOrDefault("type", "manual").toString().toUpperCase());
+            Boolean spread = scheduleMap.containsKey("spread") ? Boolean.parseBoolean(scheduleMap.get("spread").toString()) : null;
+            Integer jitter = scheduleMap.containsKey("jitter") ? Scheduling.parseJitter(scheduleMap.get("jitter")) : null;
             if (type.equals(ScheduleType.TIMER)) {
                 int duration = (int) scheduleMap.getOrDefault("duration", 5);
                 TimeUnit unit = TimeUnit.valueOf(scheduleMap.getOrDefault("unit", "minutes").toString().toUpperCase());
-                return new Schedule(duration, unit);
+                return new Schedule(duration, unit, spread, jitter);
+            } else if (type.equals(ScheduleType.ADAPTIVE)) {
+                int min = Integer.parseInt(scheduleMap.getOrDefault("min", 1).toString());
+                int max = Integer.parseInt(scheduleMap.getOrDefault("max", 60).toString());
+                TimeUnit unit = TimeUnit.valueOf(scheduleMap.getOrDefault("unit", "minutes").toString().toUpperCase());
+                double backoff = Double.parseDouble(scheduleMap.getOrDefault("backoff", 2).toString());
+
+                if (min < 1 || max < min) {
+                    throw new APIException("Schedule min must be at least 1 and max at least min: " + scheduleMap.toString());
+                } else if (backoff < 1) {
+                    throw new APIException("Schedule backoff must be at least 1: " + scheduleMap.toString());
+                }
+
+                return new Schedule(min, max, unit, backoff, spread, jitter);
             } else if (type.equals(ScheduleType.CRON)) {
                 String cron = (String) scheduleMap.getOrDefault("cron", "0 * * * *");
                 return new Schedule(cron);
@@ -85,23 +134,144 @@ public class Schedule implements TagChangeListener {
         this.logger = logger;
 
         executor = new FunctionExecutor(logger, function, null);
-        if (getType().equals(ScheduleType.TIMER)) {
-            logger.debug("Scheduling with fixed delay at " + String.format("%d %s", getDuration(), getUnit().toString().toLowerCase()));
+        async = function.getApi().getExecutionMode().equals(API.ExecutionMode.ASYNC);
+        executors = function.getApi().getExecutorManager();
+        virtualThreads = executors.isVirtualThreads();
+        // In the virtual thread mode the shared timer only ever triggers runs, it never runs them itself
+        scheduledExecutorService = virtualThreads ? executors.getTimer() : function.getApi().getGatewayContext().getScheduledExecutorService();
+        if (getType().equals(ScheduleType.TIMER) || getType().equals(ScheduleType.ADAPTIVE)) {
+            Scheduling scheduling = function.getApi().getScheduling();
+            if (spread == null) {
+                spread = scheduling != null && scheduling.isSpread();
+            }
+            if (jitter == null) {
+                jitter = scheduling != null ? scheduling.getJitter() : 0;
+            }
+
+            long period = getUnit().toMillis(getDuration());
+            long offset = spread ? getOffset(function, period) : 0;
+            synchronized (this) {
+                interval = period;
+                lastDigest = null;
+            }
+            logger.debug("Scheduling with " + (getType().equals(ScheduleType.ADAPTIVE) ? "adaptive delay from " : "fixed delay at ") + String.format("%d %s", getDuration(), getUnit().toString().toLowerCase()) + ", starting in " + offset + "ms" + (jitter > 0 ? ", jitter " + jitter + "%" : ""));
             if (getDuration() == 0) {
-                function.getApi().getGatewayContext().getScheduledExecutorService().execute(executor);
+                scheduledExecutorService.execute(this::trigger);
+            } else if (async || virtualThreads || jitter > 0 || getType().equals(ScheduleType.ADAPTIVE)) {
+                // Jitter and adaptive intervals need every delay worked out on its own, which
+                // scheduleWithFixedDelay() can't do
+                scheduleNext(offset);
             } else {
-                setScheduledFuture(function.getApi().getGatewayContext().getScheduledExecutorService().scheduleWithFixedDelay(executor, 0, getDuration(), getUnit()));
+                setScheduledFuture(scheduledExecutorService.scheduleWithFixedDelay(executor, offset, period, TimeUnit.MILLISECONDS));
             }
         } else if (getType().equals(ScheduleType.CRON)) {
-            cronScheduler = new Scheduler();
-            cronScheduler.schedule(getCron(), executor);
-            cronScheduler.start();
+            cronManager = function.getApi().getCronManager();
+            // trigger() already hands the run off in async and virtual thread mode; otherwise it runs inline
+            // and has to be dispatched onto the scheduler threads so it doesn't hold up the cron thread
+            Executor dispatch = async || virtualThreads ? Runnable::run : scheduledExecutorService;
+            cronTaskId = cronManager.schedule(getCron(), this::trigger, dispatch);
         } else if (getType().equals(ScheduleType.TAG)) {
             TagPath tagPath = TagPathParser.parseSafe(getTagPath());
             function.getApi().getGatewayContext().getTagManager().subscribeAsync(tagPath, this);
         }
     }
 
+    /**
+     * Runs the function once: inline, handed to the async pipeline for executionMode: async, or to
+     * the run executor in the virtual thread mode (see ExecutorManager). In the latter two the
+     * triggering thread (timer, cron or tag event delivery) is released at once.
+     */
+    private CompletableFuture<?> trigger() {
+        if (async) {
+            return executor.executeAsync();
+        }
+        if (virtualThreads) {
+            return CompletableFuture.runAsync(executor, executors.getRunExecutor());
+        }
+        executor.run();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Equivalent of scheduleWithFixedDelay() for runs that don't happen on the scheduling thread:
+     * the next run is only scheduled once the previous one completes, so the fixed delay still holds
+     * between the end of one run and the start of the next, without a thread waiting in between.
+     */
+    private void scheduleNext(long delay) {
+        if (stopped) {
+            return;
+        }
+        setScheduledFuture(scheduledExecutorService.schedule(() -> {
+            // shutdown() may have cancelled the previous future just before this one was scheduled
+            if (stopped) {
+                return;
+            }
+            trigger().whenComplete((ret, ex) -> scheduleNext(getDelay()));
+        }, delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * The period (for ADAPTIVE, the current interval), moved by up to jitter percent of it either way.
+     */
+    private long getDelay() {
+        long period = getType().equals(ScheduleType.ADAPTIVE) ? getInterval() : getUnit().toMillis(getDuration());
+        if (jitter == null || jitter == 0) {
+            return period;
+        }
+        long range = period * jitter / 100;
+        return period + (range > 0 ? ThreadLocalRandom.current().nextLong(-range, range + 1) : 0);
+    }
+
+    /**
+     * Where in its period the timer starts, the same for the same API and function name on every start.
+     * String.hashCode() is specified, so this holds across gateway restarts too; the multiplication
+     * spreads names that only differ in their last characters.
+     */
+    private static long getOffset(Function function, long period) {
+        if (period <= 0) {
+            return 0;
+        }
+        long hash = (function.getApi().getName() + "/" + function.getName()).hashCode() * 0x9E3779B97F4A7C15L;
+        return Math.floorMod(hash ^ (hash >>> 32), period);
+    }
+
+    /**
+     * ADAPTIVE: moves the interval according to a scheduled run's response. Unchanged from the last one,
+     * the interval is multiplied by backoff, up to maxDuration; changed, it goes straight back to the
+     * minimum so the next change is picked up as quickly as before.
+     *
+     * @param digest of the response (or of its validators), null when the server answered 304 Not Modified
+     */
+    public synchronized void adapt(byte[] digest) {
+        if (!getType().equals(ScheduleType.ADAPTIVE)) {
+            return;
+        }
+
+        boolean changed = digest != null && !Arrays.equals(digest, lastDigest);
+        if (digest != null) {
+            lastDigest = digest;
+        }
+
+        long min = getUnit().toMillis(getDuration());
+        long previous = interval;
+        interval = changed ? min : Math.min(getUnit().toMillis(maxDuration), (long) Math.ceil(interval * backoff));
+        if (interval != previous && logger != null) {
+            logger.debug("Response " + (changed ? "changed" : "unchanged") + ", polling every " + interval + "ms");
+        }
+    }
+
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    public synchronized int getMaxDuration() {
+        return maxDuration;
+    }
+
+    public synchronized double getBackoff() {
+        return backoff;
+    }
+
     public synchronized int getDuration() {
         return duration;
     }
@@ -131,8 +301,15 @@ public class Schedule implements TagChangeListener {
     }
 
     public synchronized Date getNextDate() {
-        if (getType().equals(ScheduleType.TIMER)) {
-            return new Date(new Date().getTime() + getUnit().toMillis(getDuration()));
+        if (getType().equals(ScheduleType.TIMER) || getType().equals(ScheduleType.ADAPTIVE)) {
+            // Before the first run, which may be spread into the period. From within a run the future's
+            // delay is already spent, and the next one is a period (give or take jitter) after it ends.
+            if (scheduledFuture != null && scheduledFuture.getDelay(TimeUnit.MILLISECONDS) > 0) {
+                return new Date(new Date().getTime() + scheduledFuture.getDelay(TimeUnit.MILLISECONDS));
+            }
+            return new Date(new Date().getTime() + (getType().equals(ScheduleType.ADAPTIVE) ? getInterval() : getUnit().toMillis(getDuration())));
+        } else if (getType().equals(ScheduleType.CRON) && cronTaskId != null) {
+            return cronManager.getNextFireTime(cronTaskId);
         }
 
         return null;
@@ -142,15 +319,12 @@ public class Schedule implements TagChangeListener {
         this.scheduledFuture = scheduledFuture;
     }
 
-    public synchronized Scheduler getCronScheduler() {
-        return cronScheduler;
-    }
-
     public ScheduledFuture getScheduledFuture() {
         return scheduledFuture;
     }
 
     public void shutdown() {
+        stopped = true;
         if (getScheduledFuture() != null) {
             // mayInterruptIfRunning=false: shutdown() can be called from inside this schedule's own
             // currently-executing task (e.g. OAuth2.needsAuth() -> api.pause() -> ... -> here, called
@@ -161,8 +335,8 @@ public class Schedule implements TagChangeListener {
             getScheduledFuture().cancel(false);
         }
 
-        if (getCronScheduler() != null) {
-            getCronScheduler().stop();
+        if (cronTaskId != null) {
+            cronManager.deschedule(cronTaskId);
         }
     }
 
@@ -188,7 +362,7 @@ public class Schedule implements TagChangeListener {
             }
 
             if (proceed) {
-                executor.run();
+                trigger();
             }
         } catch (Throwable t) {
             logger.error("Error executing tag change listener: " + t.getMessage(), t);
@@ -199,6 +373,8 @@ public class Schedule implements TagChangeListener {
     public String toString() {
         if (getType().equals(ScheduleType.TIMER)) {
             return String.format("Timer: %d %s", getDuration(), getUnit().toString().toLowerCase());
+        } else if (getType().equals(ScheduleType.ADAPTIVE)) {
+            return String.format("Adaptive: %d-%d %s", getDuration(), getMaxDuration(), getUnit().toString().toLowerCase());
         } else if (getType().equals(ScheduleType.CRON)) {
             return String.format("Cron: %s", getCron());
         } else if (getType().equals(ScheduleType.TAG)) {
@@ -209,6 +385,6 @@ public class Schedule implements TagChangeListener {
     }
 
     public enum ScheduleType {
-        MANUAL, TIMER, CRON, TAG;
+        MANUAL, TIMER, ADAPTIVE, CRON, TAG;
     }
 }
@@ -12,6 +12,7 @@ import java.util.Map;
 public abstract class Action implements YamlParser, ResponseHandler {
     protected Function function;
     private RunIf runIf;
+    private boolean skipIfUnchanged;
 
     public Action(Function function) {
         this.function = function;
@@ -49,6 +50,10 @@ public abstract class Action implements YamlParser, ResponseHandler {
         return runIf;
     }
 
+    public synchronized boolean isSkipIfUnchanged() {
+        return skipIfUnchanged;
+    }
+
     public void shutdown() {
 
     }
@@ -56,6 +61,7 @@ public abstract class Action implements YamlParser, ResponseHandler {
     @Override
     public void parse(Integer version, Map yamlMap) throws APIException {
         runIf = RunIf.getRunIf(function, yamlMap);
+        skipIfUnchanged = (boolean) yamlMap.getOrDefault("skipIfUnchanged", false);
     }
 
     public boolean proceed(VariableStore store, String response) throws APIException {
@@ -12,9 +12,14 @@ import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class FunctionAction extends Action implements VariableStore {
@@ -25,9 +30,16 @@ public class FunctionAction extends Action implements VariableStore {
     private FunctionTypeEnum type;
     private ValueString items;
     private List<VariableAction> variables;
-    private Map<String, Object> localVariables;
+    // Variables of the most recent item, for this action as a variable store. Each item gets a map of its
+    // own, which is what its call and its retries run with.
+    private volatile Map<String, Object> localVariables;
     private Case condition;
     private Retry retry;
+    // Retry state per item: items may run in parallel, and one item's result mustn't reset or use up
+    // another's retries. An item's entry is dropped once its condition matches again.
+    private final Map<String, Retry> itemRetries = new ConcurrentHashMap<>();
+    private int parallelism;
+    private boolean failOnError;
 
     public FunctionAction(Function function) {
         super(function);
@@ -67,6 +79,8 @@ public class FunctionAction extends Action implements VariableStore {
         }
 
         retry = Retry.parseRetry(function, yamlMap);
+        parallelism = Math.max(1, Integer.parseInt(yamlMap.getOrDefault("parallelism", 1).toString()));
+        failOnError = Boolean.parseBoolean(yamlMap.getOrDefault("failOnError", false).toString());
     }
 
     private synchronized String getTrueFunction() {
@@ -97,66 +111,164 @@ public class FunctionAction extends Action implements VariableStore {
         return retry;
     }
 
+    public synchronized int getParallelism() {
+        return parallelism;
+    }
+
+    public synchronized boolean isFailOnError() {
+        return failOnError;
+    }
+
+    private Retry getRetry(String item) {
+        Retry retry = getRetry();
+        if (retry == null) {
+            return null;
+        }
+        return itemRetries.computeIfAbsent(item, i -> new Retry(retry.getDuration(), retry.getUnit(), retry.getMax()));
+    }
+
     @Override
     public void handleResponse(VariableStore store, int statusCode, String contentType, String response) throws APIException {
         try {
-            for (String item : getItems().getValues(store, response)) {
-                if (getType().equals(FunctionTypeEnum.DIRECT)) {
-                    executeFunction(store, statusCode, contentType, response, item, getTrueFunction());
-                } else if (getType().equals(FunctionTypeEnum.CONDITION)) {
-                    if (getCondition().matches(store, response, item)) {
-                        executeFunction(store, statusCode, contentType, response, item, getTrueFunction());
-
-                        if (getRetry() != null) {
-                            getRetry().clearExecutionCount();
-                        }
-                    } else {
-                        if (getFalseFunction() != null) {
-                            executeFunction(store, statusCode, contentType, response, item, getFalseFunction());
-                        }
+            handleItems(store, statusCode, contentType, response, getItems().getValues(store, response));
+        } catch (Throwable ex) {
+            throw new APIException("Error handling function action", ex);
+        }
+    }
 
-                        if (getRetry() != null) {
-                            if (getRetry().canExecute()) {
-                                FunctionExecutor executor = new FunctionExecutor(logger, function, new HandlerVariableStore(localVariables));
-                                if (getRetry().getDuration() == 0) {
-                                    function.getApi().getGatewayContext().getScheduledExecutorService().execute(executor);
-                                } else {
-                                    Integer duration = getRetry().getDuration();
-                                    getRetry().setScheduledFuture(function.getApi().getGatewayContext().getScheduledExecutorService().schedule((Runnable) executor, duration.longValue(), getRetry().getUnit()));
-                                }
-                            }
+    /**
+     * Runs up to parallelism items at a time, started in the order of the items, and waits for all of
+     * them. Whatever the parallelism, every item runs even when some fail, and the failed ones are then
+     * reported together as one error: items that couldn't be handled (their variables or condition
+     * failed) always, and items whose called function failed only with failOnError - otherwise that only
+     * shows on the called function's status.
+     * <p>
+     * The items are worked through by the calling thread and up to parallelism - 1 helpers on the I/O
+     * executor (see ExecutorManager), each taking the next item that hasn't been started. Each item is a
+     * blocking round trip, so they're kept off the process executor, whose few threads the async
+     * pipeline of every function needs. The calling thread never just waits for items nobody has picked
+     * up, so a busy I/O pool slows the action down rather than deadlocking it.
+     */
+    private void handleItems(VariableStore store, int statusCode, String contentType, String response, List<String> items) throws APIException, InterruptedException {
+        int count = items.size();
+        boolean[] succeeded = new boolean[count];
+        Throwable[] errors = new Throwable[count];
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch remaining = new CountDownLatch(count);
+        Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < count) {
+                try {
+                    succeeded[i] = handleItem(store, statusCode, contentType, response, items.get(i));
+                } catch (Throwable ex) {
+                    errors[i] = ex;
+                } finally {
+                    remaining.countDown();
+                }
+            }
+        };
+
+        Executor executor = function.getApi().getExecutorManager().getIoExecutor();
+        for (int helper = 1; helper < Math.min(getParallelism(), count); helper++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException ex) {
+                // Shutting down, the calling thread does the rest
+                break;
+            }
+        }
+        worker.run();
+        remaining.await();
+
+        List<String> failed = new ArrayList<>();
+        Throwable cause = null;
+        for (int i = 0; i < count; i++) {
+            if (errors[i] != null || (!succeeded[i] && isFailOnError())) {
+                failed.add(items.get(i));
+                if (cause == null) {
+                    cause = errors[i];
+                }
+            }
+        }
+
+        if (!failed.isEmpty()) {
+            throw new APIException("Function action failed for " + failed.size() + " of " + items.size() + " items: " + failed, cause);
+        }
+    }
+
+    /**
+     * @return false if a function called for the item failed
+     */
+    private boolean handleItem(VariableStore store, int statusCode, String contentType, String response, String item) throws APIException {
+        boolean success = true;
+        if (getType().equals(FunctionTypeEnum.DIRECT)) {
+            success = executeFunction(getItemVariables(store, response, item), getTrueFunction());
+        } else if (getType().equals(FunctionTypeEnum.CONDITION)) {
+            if (getCondition().matches(store, response, item)) {
+                success = executeFunction(getItemVariables(store, response, item), getTrueFunction());
+
+                if (getRetry() != null) {
+                    itemRetries.remove(item);
+                }
+            } else {
+                Retry itemRetry = getRetry(item);
+                Map<String, Object> itemVariables = getFalseFunction() != null || itemRetry != null ? getItemVariables(store, response, item) : null;
+                if (getFalseFunction() != null) {
+                    success = executeFunction(itemVariables, getFalseFunction());
+                }
+
+                if (itemRetry != null) {
+                    if (itemRetry.canExecute()) {
+                        itemRetry.increaseExecutionCount();
+                        function.getMetrics().retry();
+                        FunctionExecutor executor = new FunctionExecutor(logger, function, new HandlerVariableStore(itemVariables), false);
+                        if (itemRetry.getDuration() == 0) {
+                            function.getApi().getGatewayContext().getScheduledExecutorService().execute(executor);
+                        } else {
+                            Integer duration = itemRetry.getDuration();
+                            itemRetry.setScheduledFuture(function.getApi().getGatewayContext().getScheduledExecutorService().schedule((Runnable) executor, duration.longValue(), itemRetry.getUnit()));
                         }
                     }
                 }
             }
-        } catch (Throwable ex) {
-            throw new APIException("Error handling function action", ex);
         }
+        return success;
     }
 
     @Override
     public void shutdown() {
-        if (getRetry() != null && getRetry().getScheduledFuture() != null) {
-            // false, not true: this can be called from inside the retry's own currently-executing
-            // task (a retried FunctionExecutor whose authenticate() call triggers needsAuth() ->
-            // pause() -> ... -> here), where interrupting would interrupt the calling thread itself.
-            // See Schedule.shutdown() for the full explanation of this pattern.
-            getRetry().getScheduledFuture().cancel(false);
+        for (Retry itemRetry : itemRetries.values()) {
+            if (itemRetry.getScheduledFuture() != null) {
+                // false, not true: this can be called from inside the retry's own currently-executing
+                // task (a retried FunctionExecutor whose authenticate() call triggers needsAuth() ->
+                // pause() -> ... -> here), where interrupting would interrupt the calling thread itself.
+                // See Schedule.shutdown() for the full explanation of this pattern.
+                itemRetry.getScheduledFuture().cancel(false);
+            }
         }
+        itemRetries.clear();
     }
 
-    private void executeFunction(VariableStore store, int statusCode, String contentType, String response, String item, String functionName) throws APIException {
-        localVariables.clear();
+    /**
+     * A map per item - items may run in parallel, and a run (or a retry of one) still reads its variables
+     * after the next item's have been evaluated.
+     */
+    private Map<String, Object> getItemVariables(VariableStore store, String response, String item) throws APIException {
+        Map<String, Object> itemVariables = new ConcurrentHashMap<>();
         for (VariableAction variable : getVariables()) {
             Object value = variable.getValue(store, response, item);
-            localVariables.put(variable.getName(), value);
+            itemVariables.put(variable.getName(), value);
         }
+        localVariables = itemVariables;
+        return itemVariables;
+    }
 
-        logger.debug("Handling function action with [function=" + functionName + ", variables=" + localVariables.keySet().stream()
-                .map(key -> key + "=" + localVariables.get(key).toString())
+    private boolean executeFunction(Map<String, Object> itemVariables, String functionName) throws APIException {
+        logger.debug("Handling function action with [function=" + functionName + ", variables=" + itemVariables.keySet().stream()
+                .map(key -> key + "=" + itemVariables.get(key).toString())
                 .collect(Collectors.joining(", ", "{", "}")) + "]");
 
-        function.getApi().getFunctions().getFunction(functionName).executeBlocking(this);
+        return function.getApi().getFunctions().getFunction(functionName).callBlocking(new HandlerVariableStore(itemVariables)) != null;
     }
 
     @Override
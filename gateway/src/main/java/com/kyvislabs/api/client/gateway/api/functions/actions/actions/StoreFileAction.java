@@ -1,11 +1,11 @@
 package com.kyvislabs.api.client.gateway.api.functions.actions.actions;
 
 import com.kyvislabs.api.client.common.exceptions.APIException;
-import com.kyvislabs.api.client.common.scripting.AbstractScriptFunctionsScriptModule;
 import com.kyvislabs.api.client.gateway.api.ValueString;
 import com.kyvislabs.api.client.gateway.api.functions.Function;
 import com.kyvislabs.api.client.gateway.api.functions.actions.Action;
 import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
+import com.kyvislabs.api.client.gateway.managers.StoreFileManager;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.RandomStringUtils;
@@ -14,9 +14,12 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.DirectoryStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 
 public class StoreFileAction extends Action {
@@ -91,26 +94,46 @@ public class StoreFileAction extends Action {
         return fileId.replaceAll("[^a-zA-Z0-9._-]", "_") + ".id";
     }
 
-    private void removeExistingTokenFiles(Path apiDir, String fullFileName) {
-        try (DirectoryStream<Path> tokenFiles = Files.newDirectoryStream(apiDir, "*.token")) {
-            for (Path tokenFile : tokenFiles) {
-                try {
-                    if (Files.readString(tokenFile).trim().equals(fullFileName)) {
-                        Files.delete(tokenFile);
-                    }
-                } catch (IOException ex) {
-                    logger.warn("Error inspecting token file '" + tokenFile + "'", ex);
-                }
+    /**
+     * Gives a downloaded FILE response the stored file's name. The download is in the same directory (see
+     * StoreFileManager.createResponseFile()), so that's a hard link: nothing is written a second time, and
+     * the executor deleting the download once the actions have run only removes its other name - other
+     * actions still read it, another storefile action included. Linked under a temporary name and then
+     * renamed over the target, so a file being served is replaced in one step. Copied only where the file
+     * system has no hard links.
+     */
+    private static void storeResponseFile(Path source, Path target) throws IOException {
+        Path link = source.resolveSibling(source.getFileName() + ".link");
+        try {
+            try {
+                Files.createLink(link, source);
+            } catch (UnsupportedOperationException | IOException ex) {
+                copyFile(source, link);
+            }
+            try {
+                Files.move(link, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+                Files.move(link, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(link);
+        }
+    }
+
+    private static void copyFile(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
             }
-        } catch (IOException ex) {
-            logger.warn("Error listing token files in '" + apiDir + "'", ex);
         }
     }
 
     @Override
     public void handleResponse(VariableStore store, int statusCode, String contentType, String response) throws APIException {
         try {
-            byte[] fileBytes = Base64.decodeBase64(response);
             String api = function.getApi().getName();
             String fileId = getFileId().getValue(store, response);
             String fileName = getFileName().getValue(store, response);
@@ -118,26 +141,27 @@ public class StoreFileAction extends Action {
             String accessToken = generateAccessToken();
             String fullFileName = fileName + "." + getExtension();
 
-            File dataDir = function.getApi().getGatewayContext().getSystemManager().getDataDir();
-            File moduleDir = new File(dataDir, "modules/" + AbstractScriptFunctionsScriptModule.MODULE_ID);
+            StoreFileManager storeFileManager = function.getApi().getStoreFileManager();
+            File moduleDir = storeFileManager.getModuleDir();
             if (!moduleDir.exists()) {
                 moduleDir.mkdir();
             }
-            File apiDir = new File(moduleDir, api);
+            File apiDir = storeFileManager.getApiDir(api);
             if (!apiDir.exists()) {
                 apiDir.mkdir();
             }
 
-            FileUtils.writeByteArrayToFile(new File(apiDir, fullFileName), fileBytes);
-
-            // Remove any previously-issued token file(s) for this fileName so old access URLs stop
-            // working and we don't accumulate one orphaned token file per execution.
-            removeExistingTokenFiles(apiDir.toPath(), fullFileName);
+            File file = new File(apiDir, fullFileName);
+            if (function.getResponseType().equals(Function.ResponseType.FILE)) {
+                // The response is the path of the downloaded file
+                storeResponseFile(Path.of(response), file.toPath());
+            } else {
+                FileUtils.writeByteArrayToFile(file, Base64.decodeBase64(response));
+            }
 
-            // Write a token file that maps accessToken -> fullFileName
-            // This replaces the DB record for StoreFileServlet lookup
-            File tokenFile = new File(apiDir, accessToken + ".token");
-            Files.writeString(tokenFile.toPath(), fullFileName);
+            // Serve it under a new access token; the previous one for this fileName stops working, so
+            // old access URLs don't keep resolving and no orphaned token files pile up
+            storeFileManager.store(api, fullFileName, getContentType(), accessToken);
 
             // Write an id marker file so storeFileIdNotExists can check existence by fileId
             File idFile = new File(apiDir, getIdMarkerFileName(fileId));
@@ -1,9 +1,8 @@
 package com.kyvislabs.api.client.gateway.api.functions.actions.actions;
 
-import com.kyvislabs.api.client.common.scripting.AbstractScriptFunctionsScriptModule;
 import com.kyvislabs.api.client.gateway.managers.APIManager;
 import com.kyvislabs.api.client.gateway.api.API;
-import org.apache.commons.io.FileUtils;
+import com.kyvislabs.api.client.gateway.managers.StoreFileManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,13 +12,34 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
 
+/**
+ * Serves stored files by access token. Files are looked up in the StoreFileManager index, so a request
+ * touches the disk only for the file itself.
+ * <p>
+ * A stored file never changes under the same token (storing it again issues a new one), which makes the
+ * responses safe to cache: they carry an ETag and Last-Modified and are answered with 304 when the client
+ * still has them. Single byte ranges are supported for large files and media players; multiple ranges
+ * are answered with the whole file, which the spec allows.
+ */
 public class StoreFileServlet extends HttpServlet {
     private final Logger logger = LoggerFactory.getLogger("API.StoreFile.Servlet");
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        serve(req, resp, true);
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        serve(req, resp, false);
+    }
+
+    private void serve(HttpServletRequest req, HttpServletResponse resp, boolean sendBody) throws IOException {
         try {
             logger.debug("Store file URI: " + req.getRequestURI());
 
@@ -28,32 +48,141 @@ public class StoreFileServlet extends HttpServlet {
             String accessToken = uriParts[uriParts.length - 1];
 
             API api = APIManager.get().getAPI(apiName);
-            File dataDir = api.getGatewayContext().getSystemManager().getDataDir();
-            File moduleDir = new File(dataDir, "modules/" + AbstractScriptFunctionsScriptModule.MODULE_ID);
-            File apiDir = new File(moduleDir, api.getName());
-
-            // Find file by access token (scan directory for matching token file)
-            File tokenFile = new File(apiDir, accessToken + ".token");
-            if (tokenFile.exists()) {
-                String fileName = Files.readString(tokenFile.toPath()).trim();
-                File file = new File(apiDir, fileName);
-                if (file.exists()) {
-                    String contentType = Files.probeContentType(file.toPath());
-                    if (contentType != null) resp.setContentType(contentType);
-                    FileUtils.copyFile(file, resp.getOutputStream());
-                } else {
-                    resp.sendError(404, "File not found");
-                }
-            } else {
+            StoreFileManager storeFileManager = api.getStoreFileManager();
+            StoreFileManager.StoredFile storedFile = storeFileManager.getFile(api.getName(), accessToken);
+            if (storedFile == null) {
                 resp.sendError(403, "Invalid access token");
+                return;
+            }
+
+            File file = new File(storeFileManager.getApiDir(api.getName()), storedFile.fileName());
+            if (!file.exists()) {
+                resp.sendError(404, "File not found");
+                return;
+            }
+
+            long length = file.length();
+            long lastModified = file.lastModified();
+            String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+
+            resp.setHeader("ETag", etag);
+            resp.setDateHeader("Last-Modified", lastModified);
+            resp.setHeader("Cache-Control", "private, max-age=86400");
+            resp.setHeader("Accept-Ranges", "bytes");
+            if (storedFile.contentType() != null) {
+                resp.setContentType(storedFile.contentType());
+            }
+
+            if (notModified(req, etag, lastModified)) {
+                resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            long start = 0;
+            long end = length - 1;
+            String range = req.getHeader("Range");
+            String ifRange = req.getHeader("If-Range");
+            if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    resp.setHeader("Content-Range", "bytes */" + length);
+                    resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                if (bounds.length == 2) {
+                    start = bounds[0];
+                    end = bounds[1];
+                    resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    resp.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + length);
+                }
+            }
+
+            long count = end - start + 1;
+            resp.setContentLengthLong(count);
+            if (sendBody && count > 0) {
+                transfer(file, start, count, resp);
             }
         } catch (Throwable ex) {
             logger.error("Store file: Error processing get response", ex);
-            resp.sendError(500, "Internal server error");
+            if (!resp.isCommitted()) {
+                resp.sendError(500, "Internal server error");
+            }
+        }
+    }
+
+    private static boolean notModified(HttpServletRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        // HTTP dates have a resolution of seconds
+        return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * @return {start, end} (inclusive) for a single satisfiable range, an empty array to send the whole
+     * file (multiple ranges, or a header we don't understand), or null if the range can't be satisfied
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            return new long[0];
+        }
+
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                // Suffix range: the last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            }
+
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException ex) {
+            return new long[0];
+        }
+    }
+
+    private static void transfer(File file, long position, long count, HttpServletResponse resp) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(resp.getOutputStream());
+            while (count > 0) {
+                long transferred = channel.transferTo(position, count, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                count -= transferred;
+            }
         }
     }
 
-    @Override protected void doHead(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException { resp.sendError(501, "Not Implemented"); }
     @Override protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException { resp.sendError(501, "Not Implemented"); }
     @Override protected void doPut(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException { resp.sendError(501, "Not Implemented"); }
     @Override protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException { resp.sendError(501, "Not Implemented"); }
@@ -28,6 +28,7 @@ public class TagAction extends Action {
     private List<Tag> tags;
     private List<RenameTag> renameTags;
     private Switch switchCases;
+    private boolean deltaWrites;
 
     public TagAction(Function function) {
         super(function);
@@ -65,6 +66,7 @@ public class TagAction extends Action {
         this.tags = Tag.parseTags(version, yamlMap, this);
         this.renameTags = RenameTag.parseRenameTags(version, yamlMap, this);
         this.switchCases.parse(version, yamlMap);
+        this.deltaWrites = (boolean) yamlMap.getOrDefault("deltaWrites", false);
     }
 
     public synchronized ValueString getPath() {
@@ -95,6 +97,10 @@ public class TagAction extends Action {
         return switchCases;
     }
 
+    public synchronized boolean isDeltaWrites() {
+        return deltaWrites;
+    }
+
     @Override
     public void handleResponse(VariableStore store, int statusCode, String contentType, String response) throws APIException {
         TagActionProcessor processor = new TagActionProcessor(logger, this);
@@ -1,16 +1,20 @@
 package com.kyvislabs.api.client.gateway.api.functions.actions.tag;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.inductiveautomation.ignition.common.sqltags.model.types.DataType;
 import com.kyvislabs.api.client.common.exceptions.APIException;
 import com.kyvislabs.api.client.gateway.api.functions.actions.actions.TagAction;
 import com.kyvislabs.api.client.gateway.api.functions.actions.condition.Case;
 import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
 import com.kyvislabs.api.client.gateway.managers.TagBuilder;
+import com.kyvislabs.api.client.gateway.managers.TagManager;
 import org.apache.commons.lang3.StringUtils;
-import org.json.JSONArray;
 import org.json.JSONObject;
 import org.slf4j.Logger;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -25,6 +29,15 @@ public class TagActionProcessor {
     private List<ConfiguredTag> configuredTags = new ArrayList<>();
     private Map<String, TagBuilder> udtDefs = new LinkedHashMap<>();
     private List<TagBuilder> udtInst = new ArrayList<>();
+    // The parts of the response inside UDTs, which have to be complete before the UDTs can be built
+    private List<ParseObject> udtTrees = new ArrayList<>();
+    private boolean trackPaths;
+
+    // Lenient like org.json, which used to parse responses here
+    private static final JsonFactory jsonFactory = new JsonFactory()
+            .enable(JsonParser.Feature.ALLOW_SINGLE_QUOTES)
+            .enable(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES);
+    private final TagUDT emptyUDT = new TagUDT();
 
     public TagActionProcessor(Logger logger, TagAction action) {
         this.logger = logger;
@@ -65,12 +78,12 @@ public class TagActionProcessor {
 
             if (action.getTagAction().equals(TagAction.TagActionEnum.TEXT)) {
                 String tagPath = parentPath + "Value";
-                action.getFunction().getApi().getTagManager().tagUpdate(tagPath, this.response);
+                tagUpdate(tagPath, this.response);
             } else if (action.getTagAction().equals(TagAction.TagActionEnum.SWITCH)) {
                 Case switchCase = action.getSwitchCases().handleResponse(store, response);
                 if (switchCase != null) {
                     String tagPath = parentPath + switchCase.getVariable("path").getValue(store, response);
-                    action.getFunction().getApi().getTagManager().tagUpdate(tagPath, switchCase.getVariable("value").getValue(store, response));
+                    tagUpdate(tagPath, switchCase.getVariable("value").getValue(store, response));
                 }
             } else if (action.getTagAction().equals(TagAction.TagActionEnum.JSONEXPAND) || action.getTagAction().equals(TagAction.TagActionEnum.JSONWRITE)) {
                 // Find all the rename paths if they exist
@@ -79,34 +92,20 @@ public class TagActionProcessor {
                 // Find all the UDTs paths if they exist
                 findUDTs();
 
-                Object responseObj = this.response;
-
-                try {
-                    responseObj = new JSONObject(this.response);
-                } catch (Exception ex) {
-
-                }
-
-                try {
-                    responseObj = new JSONArray(this.response);
-                } catch (Exception ex) {
-
-                }
-
-                // Build a nested set of objects that follows the JSON structure. If JSONEXPAND bring back everything. If JSONWRITE just bring back UDTs.
-                List<ParseObject> parseObjects = iterateJSONObject(prefix, "$", responseObj, action.getTagAction().equals(TagAction.TagActionEnum.JSONEXPAND));
+                // Walk the response, writing values out as they're read. If JSONEXPAND bring back everything. If JSONWRITE just bring back UDTs.
+                expand(prefix, action.getTagAction().equals(TagAction.TagActionEnum.JSONEXPAND));
 
                 // If we find UDTs, create and build the UDTs. The functions build a list of configured UDT instances so we can create/update tags from the YAML and issue write handlers
-                if (udtPathList.size() > 0) {
+                if (udtTrees.size() > 0) {
                     // Finds all UDTs by finding the leaf UDTs first. We need to figure out the hierarchy to know what definitions we need to create since we can have composition
-                    createUDTs(parseObjects, false);
+                    createUDTs(udtTrees, false);
 
                     // Creates the UDT definition and instances. First UDT defs than instances.
                     buildUDTs();
-                }
 
-                // Writes all of the response values to the tags
-                updateTags(parseObjects);
+                    // Writes the values inside the UDTs, now that the instances exist
+                    updateTags(udtTrees);
+                }
 
                 // Register configured tags from UDTs
                 registerUDTTags();
@@ -143,81 +142,182 @@ public class TagActionProcessor {
         logger.debug("Found UDTs: " + udtPathList.keySet().stream().map(key -> key + "=" + udtPathList.get(key).getUdt()).collect(Collectors.joining(", ", "{", "}")));
     }
 
-    private List<ParseObject> iterateJSONObject(String prefix, String jsonPath, Object input, boolean jsonExpand) throws Exception {
-        List<ParseObject> parseObjects = new ArrayList<>();
-
-        String parentPath = prefix;
-        if (parentPath != null && !parentPath.equals("")) {
-            parentPath = parentPath + (parentPath.endsWith("/") ? "" : "/");
-        } else {
-            parentPath = "";
+    /**
+     * Streams the response through a JsonParser in one pass instead of parsing it into a JSONObject/JSONArray
+     * and then building a ParseObject tree of the whole thing. Values outside of UDTs are written as soon as
+     * they're read and nothing is kept of them, so memory doesn't grow with the size of the response; only
+     * the subtrees that match a UDT are collected (into udtTrees), since their definitions need all of their
+     * members before any instance can be created. Null values are skipped, as they always were.
+     * <p>
+     * The response is read through once first without writing anything, so one that turns out not to be
+     * valid JSON halfway through doesn't leave the tags before that point written and the rest not: like
+     * when it was parsed up front, it's written as is to "value" instead.
+     */
+    private void expand(String prefix, boolean jsonExpand) throws Exception {
+        // With no UDTs a JSONWRITE has nothing to write
+        if (!jsonExpand && udtPathList.isEmpty()) {
+            return;
+        }
+        // JSON paths are only needed to look up renames and UDTs
+        trackPaths = !renamePathList.isEmpty() || !udtPathList.isEmpty();
+
+        String parentPath = getParentPath(prefix);
+        List<ParseObject> sink = null;
+        if (udtPathList.containsKey("$")) {
+            TagUDT udt = udtPathList.get("$");
+            String newPrefix = parentPath + (udt.hasName() ? udt.getName() : renamePathList.getOrDefault("$", new RenameValue("value")).getName());
+            if (renamePathList.containsKey("$")) {
+                String origPrefix = parentPath + (udt.hasName() ? udt.getName() : "value");
+                renamePathList.get("$").setTagPaths(origPrefix, newPrefix);
+            }
+            sink = new ArrayList<>();
+            udtTrees.add(new ParseObject(newPrefix, "$", udt.getUdt(), sink));
         }
 
-        if (jsonPath.equals("$") && udtPathList.containsKey(jsonPath)) {
-            TagUDT udt = udtPathList.getOrDefault(jsonPath, new TagUDT());
-            List<ParseObject> childrenParseObjects = new ArrayList<>();
-            String newPrefix = String.format("%s%s", parentPath, udt.hasName() ? udt.getName() : renamePathList.getOrDefault(jsonPath, new RenameValue("value")).getName());
-            if (renamePathList.containsKey(jsonPath)) {
-                String origPrefix = String.format("%s%s", parentPath, udt.hasName() ? udt.getName() : "value");
-                renamePathList.get(jsonPath).setTagPaths(origPrefix, newPrefix);
+        if (!isJSONContainer(response) || !isValidJSON(response)) {
+            // Anything that isn't an object or an array is written as is
+            if (jsonExpand) {
+                String newPrefix = parentPath + renamePathList.getOrDefault("$", new RenameValue("value")).getName();
+                if (renamePathList.containsKey("$")) {
+                    renamePathList.get("$").setTagPaths(parentPath + "value", newPrefix);
+                }
+                writeValue(sink, newPrefix, null, response);
             }
-            parseObjects.add(new ParseObject(newPrefix, jsonPath, udt.getUdt(), childrenParseObjects));
-            parseObjects = childrenParseObjects;
+            return;
         }
 
-        if (input instanceof JSONObject) {
-            Iterator<?> keys = ((JSONObject) input).keys();
+        try (JsonParser parser = jsonFactory.createParser(response)) {
+            parser.nextToken();
+            walkContainer(parser, prefix, "$", sink, jsonExpand);
+        }
+    }
 
-            while (keys.hasNext()) {
-                String key = (String) keys.next();
-                Object obj = null;
-                if (!((JSONObject) input).isNull(key)) {
-                    obj = ((JSONObject) input).get(key);
+    /**
+     * Walks the object or array the parser is on, up to and including its end token.
+     *
+     * @param sink where to collect values when inside a UDT, or null to write them out
+     */
+    private void walkContainer(JsonParser parser, String prefix, String jsonPath, List<ParseObject> sink, boolean jsonExpand) throws Exception {
+        String parentPath = getParentPath(prefix);
+        boolean object = parser.currentToken() == JsonToken.START_OBJECT;
+        int index = 0;
+
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY) {
+            String key;
+            String newJsonPath = null;
+            if (object) {
+                key = parser.getCurrentName();
+                token = parser.nextToken();
+                if (trackPaths) {
+                    newJsonPath = jsonPath + "['" + key + "']";
                 }
-                String newJsonPath = String.format("%s['%s']", jsonPath, key);
-                TagUDT udt = udtPathList.getOrDefault(newJsonPath, new TagUDT());
-                String newPrefix = String.format("%s%s", parentPath, udt.hasName() ? udt.getName() : renamePathList.getOrDefault(newJsonPath, new RenameValue(key)).getName());
-                if (renamePathList.containsKey(newJsonPath)) {
-                    String origPrefix = String.format("%s%s", parentPath, udt.hasName() ? udt.getName() : key);
-                    renamePathList.get(newJsonPath).setTagPaths(origPrefix, newPrefix);
+            } else {
+                key = Integer.toString(index++);
+                if (trackPaths) {
+                    newJsonPath = jsonPath + "[" + key + "]";
                 }
-                handleJSONObject(parseObjects, obj, newPrefix, newJsonPath, udt, jsonExpand || udt.isUDT());
             }
-        } else if (input instanceof JSONArray) {
-            for (int i = 0; i < ((JSONArray) input).length(); i++) {
-                Object obj = null;
-                if (!((JSONArray) input).isNull(i)) {
-                    obj = ((JSONArray) input).get(i);
-                }
-                String newJsonPath = String.format("%s[%d]", jsonPath, i);
-                TagUDT udt = udtPathList.getOrDefault(newJsonPath, new TagUDT());
-                String newPrefix = String.format("%s%s", parentPath, udt.hasName() ? udt.getName() : renamePathList.getOrDefault(newJsonPath, new RenameValue(Integer.toString(i))).getName());
-                if (renamePathList.containsKey(newJsonPath)) {
-                    String origPrefix = String.format("%s%s", parentPath, udt.hasName() ? udt.getName() : Integer.toString(i));
-                    renamePathList.get(newJsonPath).setTagPaths(origPrefix, newPrefix);
+
+            TagUDT udt = newJsonPath == null ? emptyUDT : udtPathList.getOrDefault(newJsonPath, emptyUDT);
+            RenameValue rename = newJsonPath == null ? null : renamePathList.get(newJsonPath);
+            String name = udt.hasName() ? udt.getName() : key;
+            String newPrefix = parentPath + (udt.hasName() || rename == null ? name : rename.getName());
+            if (rename != null) {
+                rename.setTagPaths(parentPath + name, newPrefix);
+            }
+
+            if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                if (sink == null && !udt.isUDT()) {
+                    walkContainer(parser, newPrefix, newJsonPath, null, jsonExpand);
+                } else {
+                    List<ParseObject> children = new ArrayList<>();
+                    walkContainer(parser, newPrefix, newJsonPath, children, jsonExpand || udt.isUDT());
+                    ParseObject parseObject = new ParseObject(newPrefix, newJsonPath, udt.getUdt(), children);
+                    if (sink != null) {
+                        sink.add(parseObject);
+                    } else {
+                        udtTrees.add(parseObject);
+                    }
                 }
-                handleJSONObject(parseObjects, obj, newPrefix, newJsonPath, udt, jsonExpand || udt.isUDT());
+            } else if (jsonExpand || udt.isUDT()) {
+                writeValue(sink, newPrefix, newJsonPath, getValue(parser, token));
             }
+        }
+    }
+
+    private void writeValue(List<ParseObject> sink, String tagPath, String jsonPath, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (sink != null) {
+            sink.add(new ParseObject(tagPath, jsonPath, value));
         } else {
-            if (jsonExpand) {
-                String newPrefix = String.format("%s%s", parentPath, renamePathList.getOrDefault(jsonPath, new RenameValue("value")).getName());
-                if (renamePathList.containsKey(jsonPath)) {
-                    String origPrefix = String.format("%s%s", parentPath, "value");
-                    renamePathList.get(jsonPath).setTagPaths(origPrefix, newPrefix);
-                }
-                parseObjects.add(new ParseObject(newPrefix, null, input));
+            tagUpdate(tagPath, value);
+        }
+    }
+
+    /**
+     * Writes a value taken from the response. With deltaWrites, only if it changed since the last run.
+     */
+    private void tagUpdate(String tagPath, Object value) {
+        TagManager tagManager = action.getFunction().getApi().getTagManager();
+        if (action.isDeltaWrites()) {
+            tagManager.tagUpdateIfChanged(tagPath, value);
+        } else {
+            tagManager.tagUpdate(tagPath, value);
+        }
+    }
+
+    private static Object getValue(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                // Integer, Long or BigInteger depending on size
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isJSONContainer(String response) {
+        if (response == null) {
+            return false;
+        }
+        for (int i = 0; i < response.length(); i++) {
+            char c = response.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                return c == '{' || c == '[';
             }
         }
+        return false;
+    }
 
-        return parseObjects;
+    /**
+     * Reads through the object or array the response starts with, keeping nothing of it.
+     */
+    private static boolean isValidJSON(String response) {
+        try (JsonParser parser = jsonFactory.createParser(response)) {
+            parser.nextToken();
+            parser.skipChildren();
+            return true;
+        } catch (IOException ex) {
+            return false;
+        }
     }
 
-    private void handleJSONObject(List<ParseObject> parseObjects, Object obj, String newPrefix, String newJsonPath, TagUDT udt, boolean jsonExpand) throws Exception {
-        if (obj instanceof JSONObject || obj instanceof JSONArray) {
-            parseObjects.add(new ParseObject(newPrefix, newJsonPath, udt.getUdt(), iterateJSONObject(newPrefix, newJsonPath, obj, jsonExpand || udt.isUDT())));
-        } else if (jsonExpand) {
-            parseObjects.add(new ParseObject(newPrefix, newJsonPath, obj));
+    private static String getParentPath(String prefix) {
+        if (prefix != null && !prefix.equals("")) {
+            return prefix + (prefix.endsWith("/") ? "" : "/");
         }
+        return "";
     }
 
     private void createUDTs(List<ParseObject> parseObjects, boolean parentUdt) throws Exception {
@@ -298,7 +398,7 @@ public class TagActionProcessor {
     private void updateTags(List<ParseObject> parseObjects) {
         for (ParseObject tag : parseObjects) {
             if (tag.hasValue()) {
-                action.getFunction().getApi().getTagManager().tagUpdate(tag.getTagPath(), tag.getValue());
+                tagUpdate(tag.getTagPath(), tag.getValue());
             }
 
             if (tag.hasChildren()) {
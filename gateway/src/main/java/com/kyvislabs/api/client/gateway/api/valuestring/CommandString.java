@@ -8,33 +8,38 @@ import com.kyvislabs.api.client.gateway.api.valuestring.function.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class CommandString extends ValueStringPart {
+    private static final Pattern FUNCTION_SEPARATOR = Pattern.compile("\\|");
+    private static final Pattern PART_SEPARATOR = Pattern.compile("\\:\\:");
+
     private ValueStringCommand commandValue;
-    private List<ValueStringFunction> functions;
+    // Fixed once parsed; evaluated for every value, so kept as a plain array
+    private ValueStringFunction[] functions;
 
     public CommandString(ValueString valueString, String part) throws APIException {
         super(valueString, part);
-        this.functions = Collections.synchronizedList(new ArrayList<>());
         parse();
     }
 
     private void parse() throws APIException {
-        List<String> parts = Arrays.stream(getPart().split("\\|"))
+        List<String> parts = Arrays.stream(FUNCTION_SEPARATOR.split(getPart()))
                 .map(String::trim).collect(Collectors.toList());
 
-        List<String> commandParts = Arrays.stream(parts.get(0).split("\\:\\:"))
+        List<String> commandParts = Arrays.stream(PART_SEPARATOR.split(parts.get(0)))
                 .map(String::trim).collect(Collectors.toList());
 
         this.commandValue = Command.getCommandFromString(commandParts.get(0)).getCommandValue(getValueString(), commandParts);
 
+        List<ValueStringFunction> functions = new ArrayList<>();
         for (int i = 1; i < parts.size(); i++) {
-            List<String> functionParts = Arrays.asList(parts.get(i).split("\\:\\:"));
-            this.functions.add(Function.getFunctionFromString(functionParts.get(0).trim()).getFunctionValue(getValueString(), functionParts));
+            List<String> functionParts = Arrays.asList(PART_SEPARATOR.split(parts.get(i)));
+            functions.add(Function.getFunctionFromString(functionParts.get(0).trim()).getFunctionValue(getValueString(), functionParts));
         }
+        this.functions = functions.toArray(new ValueStringFunction[0]);
     }
 
     private synchronized ValueStringCommand getCommandValue() {
@@ -48,7 +53,7 @@ public class CommandString extends ValueStringPart {
 
     @Override
     public String getValue(VariableStore store, String response, String item) throws APIException {
-        String value = getCommandValue().getValue(store, response, item);
+        String value = commandValue.getValue(store, response, item);
         for (ValueStringFunction function : functions) {
             value = function.getValue(value);
         }
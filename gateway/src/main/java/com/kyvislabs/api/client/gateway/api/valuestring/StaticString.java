@@ -4,12 +4,15 @@ import com.kyvislabs.api.client.gateway.api.ValueString;
 import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
 
 public class StaticString extends ValueStringPart {
+    private final String value;
+
     public StaticString(ValueString valueString, String part) {
         super(valueString, part);
+        this.value = part;
     }
 
     @Override
     public String getValue(VariableStore store, String response, String item) {
-        return getPart();
+        return value;
     }
 }
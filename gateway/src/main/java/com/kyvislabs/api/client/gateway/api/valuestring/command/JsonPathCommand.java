@@ -7,11 +7,24 @@ import com.kyvislabs.api.client.common.exceptions.APIException;
 import com.kyvislabs.api.client.gateway.api.ValueString;
 import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
 
-import java.util.List;
+import java.util.*;
 
 public class JsonPathCommand extends ValueStringCommand {
+    private static final Configuration configuration = Configuration.defaultConfiguration();
+    private static final Configuration pathListConfiguration = Configuration.builder()
+            .options(Option.AS_PATH_LIST, Option.ALWAYS_RETURN_LIST, Option.SUPPRESS_EXCEPTIONS).build();
+    private static final int ITEM_PATH_CACHE_SIZE = 256;
+
     private String jsonPath;
     private boolean commandItem = false;
+    private JsonPath compiledPath;
+    // For item commands the path depends on the item, so those are compiled as they come up
+    private final Map<String, JsonPath> itemPaths = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JsonPath> eldest) {
+            return size() > ITEM_PATH_CACHE_SIZE;
+        }
+    });
 
     public JsonPathCommand(ValueString valueString, List<String> commandParts) throws APIException {
         super(valueString, commandParts);
@@ -30,38 +43,53 @@ public class JsonPathCommand extends ValueStringCommand {
         }
 
         jsonPath = getCommandPart(jsonPathIndex);
+        if (!commandItem) {
+            try {
+                compiledPath = JsonPath.compile(jsonPath);
+            } catch (Exception ex) {
+                // Left to fail when it's read, same as it always has
+            }
+        }
     }
 
     public synchronized String getJsonPath() {
         return jsonPath;
     }
 
+    private JsonPath getCompiledPath() {
+        return compiledPath != null ? compiledPath : JsonPath.compile(getJsonPath());
+    }
+
     public synchronized boolean isCommandItem() {
         return commandItem;
     }
 
     @Override
     public List<String> getValues(VariableStore store, String response, String item) {
-        Configuration conf = Configuration.builder()
-                .options(Option.AS_PATH_LIST, Option.ALWAYS_RETURN_LIST, Option.SUPPRESS_EXCEPTIONS).build();
-        return JsonPath.using(conf).parse(response).read(getJsonPath());
+        return JsonPath.using(pathListConfiguration).parse(ResponseDocuments.parse(configuration, response)).read(getCompiledPath());
     }
 
     @Override
     public String getValue(VariableStore store, String response, String item) throws APIException {
-        String path = getJsonPath();
+        JsonPath path;
         if (isCommandItem()) {
             if (item != null) {
-                path = item + path.replace("$", "");
+                path = itemPaths.computeIfAbsent(item, i -> JsonPath.compile(i + getJsonPath().replace("$", "")));
             } else {
                 throw new APIException("JSON path command missing item");
             }
+        } else {
+            path = getCompiledPath();
         }
-        return JsonPath.parse(response).read(path).toString();
+        return JsonPath.using(configuration).parse(ResponseDocuments.parse(configuration, response)).read(path).toString();
     }
 
+    /**
+     * Read from a parse of its own rather than the run's shared document (see ResponseDocuments): what's
+     * returned is the caller's, and changing it mustn't change what later commands read.
+     */
     @Override
     public Object getValueAsObject(VariableStore store, String response) {
-        return JsonPath.parse(response).read(getJsonPath());
+        return JsonPath.using(configuration).parse(response).read(getCompiledPath());
     }
 }
@@ -0,0 +1,60 @@
+package com.kyvislabs.api.client.gateway.api.valuestring.command;
+
+import com.jayway.jsonpath.Configuration;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Responses parsed while one run handles its response, so the dozens of jsonPath commands a function
+ * typically evaluates against it (formats, actions, tags, renames, UDTs, cases) share one parse of it
+ * instead of each parsing it again.
+ * <p>
+ * Opened around a run's response handling (see FunctionExecutor.process() and WebhookKey.handleResponse())
+ * and bound to that thread until closed, the same way a TagWriteBatch is, so the documents go with the
+ * run: nothing is locked across runs, and nothing outlives it. Responses are matched by identity - it's
+ * the same String that's handed from action to action - so two runs never share a document because their
+ * responses happen to be equal. Commands evaluated outside of one (on another thread, or before the run
+ * gets to its response) parse the response themselves, as they always did.
+ * <p>
+ * The documents are only read, with JsonPath; anything handed out to callers comes from a parse of its
+ * own (see JsonPathCommand.getValueAsObject()).
+ */
+public class ResponseDocuments implements AutoCloseable {
+    private static final ThreadLocal<ResponseDocuments> current = new ThreadLocal<>();
+
+    private final ResponseDocuments previous;
+    private final Map<String, Object> documents = new IdentityHashMap<>();
+
+    private ResponseDocuments(ResponseDocuments previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Start collecting documents for the current thread. A nested run (a function action called inline)
+     * gets its own, and the outer run's is back once it's closed.
+     */
+    public static ResponseDocuments open() {
+        ResponseDocuments documents = new ResponseDocuments(current.get());
+        current.set(documents);
+        return documents;
+    }
+
+    static Object parse(Configuration configuration, String response) {
+        ResponseDocuments documents = current.get();
+        if (documents == null) {
+            return configuration.jsonProvider().parse(response);
+        }
+        return documents.documents.computeIfAbsent(response, r -> configuration.jsonProvider().parse(r));
+    }
+
+    @Override
+    public void close() {
+        documents.clear();
+        if (previous != null) {
+            current.set(previous);
+        } else {
+            current.remove();
+        }
+    }
+}
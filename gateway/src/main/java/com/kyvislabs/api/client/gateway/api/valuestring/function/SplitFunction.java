@@ -9,6 +9,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class SplitFunction extends ValueStringFunction {
+    private static final Pattern RANGE_PATTERN = Pattern.compile("\\[(-?\\d*)(\\:?)(-?\\d*)\\]");
+
     private String separator = "/";
     private Integer start, end;
 
@@ -26,8 +28,7 @@ public class SplitFunction extends ValueStringFunction {
             separator = getFunctionPart(1);
         }
 
-        Pattern r = Pattern.compile("\\[(-?\\d*)(\\:?)(-?\\d*)\\]");
-        Matcher m = r.matcher(getFunctionPart(0));
+        Matcher m = RANGE_PATTERN.matcher(getFunctionPart(0));
         if (m.find()) {
             String g1 = m.group(1);
             String g3 = m.group(3);
@@ -8,6 +8,8 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class SubFunction extends ValueStringFunction {
+    private static final Pattern RANGE_PATTERN = Pattern.compile("\\[(-?\\d*)(\\:?)(-?\\d*)\\]");
+
     private Integer start, end;
 
     public SubFunction(ValueString valueString, List<String> functionParts) throws APIException {
@@ -20,8 +22,7 @@ public class SubFunction extends ValueStringFunction {
             throw new APIException("Sub function missing parameters");
         }
 
-        Pattern r = Pattern.compile("\\[(-?\\d*)(\\:?)(-?\\d*)\\]");
-        Matcher m = r.matcher(getFunctionPart(0));
+        Matcher m = RANGE_PATTERN.matcher(getFunctionPart(0));
         if (m.find()) {
             String g1 = m.group(1);
             String g3 = m.group(3);
@@ -30,6 +30,8 @@ public class Webhook {
     private Function remove;
     private Function handle;
     private Map<String, WebhookKey> webhookKeys;
+    private WebhookQueue queue;
+    private WebhookCoalescer coalescer;
 
     public Webhook(API api, String name) {
         this.logger = LoggerFactory.getLogger(String.format("API.%s.Webhook.%s", api.getName(), name));
@@ -85,6 +87,9 @@ public class Webhook {
                 throw new APIException("Missing webhook key");
             }
 
+            queue = WebhookQueue.parseQueue(this, yamlMap);
+            coalescer = WebhookCoalescer.parseCoalesce(this, yamlMap);
+
             String tagPrefix = "Webhooks/" + getName();
             check = new Function(api, "check", tagPrefix);
             check.parse(version, (Map) yamlMap.get("check"));
@@ -106,6 +111,8 @@ public class Webhook {
         try {
             logger.debug("Starting up");
 
+            getCoalescer().startup();
+            getQueue().startup();
             init();
         } catch (Throwable ex) {
             throw new APIException("Error starting up webhook '" + name + "': " + ex.getMessage(), ex);
@@ -191,6 +198,14 @@ public class Webhook {
     public void shutdown() {
         logger.debug("Shutting down");
 
+        // Open coalescing windows first, while a durable queue's log can still record them as handled
+        if (getCoalescer() != null) {
+            getCoalescer().shutdown();
+        }
+        if (getQueue() != null) {
+            getQueue().shutdown();
+        }
+
         for (String webhookKey : getWebhookKeys().keySet()) {
             WebhookKey webhookKeyObj = getWebhookKeys().get(webhookKey);
             if (webhookKeyObj.getTtlFuture() != null) {
@@ -258,6 +273,33 @@ public class Webhook {
         return handle;
     }
 
+    public synchronized WebhookQueue getQueue() {
+        return queue;
+    }
+
+    public synchronized WebhookCoalescer getCoalescer() {
+        return coalescer;
+    }
+
+    /**
+     * Hand a delivery to the handle function, through the coalescing window when there is one. done (if
+     * not null) runs once the delivery has been handled.
+     */
+    public void deliver(WebhookKey webhookKey, String contentType, String body, Runnable done) throws APIException {
+        if (getCoalescer().isEnabled()) {
+            getCoalescer().add(webhookKey, contentType, body, done);
+            return;
+        }
+
+        try {
+            webhookKey.handleResponse(200, contentType, body);
+        } finally {
+            if (done != null) {
+                done.run();
+            }
+        }
+    }
+
     public synchronized Map<String, WebhookKey> getWebhookKeys() {
         return webhookKeys;
     }
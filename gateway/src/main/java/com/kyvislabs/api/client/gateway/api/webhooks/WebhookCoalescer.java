@@ -0,0 +1,278 @@
+package com.kyvislabs.api.client.gateway.api.webhooks;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.API;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Debounces bursts of deliveries to the same webhook key into one run of the handle function. Some
+ * upstreams send a change notification for every field that changes, dozens a second, and each one used
+ * to format the body, run every action and rewrite the tags. With a window set, the first delivery to a
+ * key opens the window and the handle function runs once when it closes, with either the last body
+ * ("last") or all of them as a JSON array ("array", bodies that aren't JSON are added as strings).
+ * <p>
+ * Windows are per key and kept in memory. A window that closes is handled on the webhook's queue
+ * threads, in line behind the deliveries waiting there and counted against the queue's size (see
+ * WebhookQueue.execute()), so coalesced runs are held to the same bound - and with the default single
+ * thread, the same order - as every other delivery. Until a place in the queue is free the window stays
+ * open and deliveries go on being merged into it. Without a queue, windows are handled on the API's
+ * process threads.
+ * <p>
+ * An array window keeps at most "maxDeliveries" bodies: one that reaches it closes right away, and while
+ * it waits for the queue the oldest bodies make room for new ones. On shutdown open windows are handled
+ * right away.
+ */
+public class WebhookCoalescer {
+    private static final Pattern WINDOW_PATTERN = Pattern.compile("(\\d+)\\s*(ms|s|m|h)?");
+
+    private final Webhook webhook;
+    private final long window;
+    private final Merge merge;
+    private final int maxDeliveries;
+    private final Map<String, Pending> pending = new HashMap<>();
+    private boolean running;
+    private Counter coalesced;
+    private Counter dropped;
+
+    private WebhookCoalescer(Webhook webhook, long window, Merge merge, int maxDeliveries) {
+        this.webhook = webhook;
+        this.window = window;
+        this.merge = merge;
+        this.maxDeliveries = maxDeliveries;
+    }
+
+    public static WebhookCoalescer parseCoalesce(Webhook webhook, Map webhookMap) throws APIException {
+        Object coalesceObj = webhookMap.get("coalesce");
+        if (coalesceObj instanceof Map) {
+            Map coalesceMap = (Map) coalesceObj;
+            return new WebhookCoalescer(webhook,
+                    parseWindow(coalesceMap.getOrDefault("window", 0)),
+                    Merge.valueOf(coalesceMap.getOrDefault("merge", "last").toString().toUpperCase()),
+                    Math.max(1, Integer.parseInt(coalesceMap.getOrDefault("maxDeliveries", 1000).toString())));
+        }
+        return new WebhookCoalescer(webhook, coalesceObj != null ? parseWindow(coalesceObj) : 0, Merge.LAST, 1000);
+    }
+
+    /**
+     * A number of milliseconds, or a number followed by ms, s, m or h.
+     */
+    private static long parseWindow(Object windowObj) throws APIException {
+        Matcher matcher = WINDOW_PATTERN.matcher(windowObj.toString().trim().toLowerCase());
+        if (!matcher.matches()) {
+            throw new APIException("Invalid coalesce window '" + windowObj + "'");
+        }
+
+        long duration = Long.parseLong(matcher.group(1));
+        String unit = matcher.group(2) != null ? matcher.group(2) : "ms";
+        switch (unit) {
+            case "s":
+                return TimeUnit.SECONDS.toMillis(duration);
+            case "m":
+                return TimeUnit.MINUTES.toMillis(duration);
+            case "h":
+                return TimeUnit.HOURS.toMillis(duration);
+            default:
+                return duration;
+        }
+    }
+
+    public synchronized boolean isEnabled() {
+        return window > 0;
+    }
+
+    public synchronized void startup() {
+        if (!isEnabled()) {
+            return;
+        }
+        running = true;
+        MetricRegistry registry = webhook.getApi().getGatewayContext().getMetricRegistry();
+        coalesced = registry.counter(API.getMetricName(webhook.getApi().getName(), MetricRegistry.name("webhook", webhook.getName(), "coalesced")));
+        dropped = registry.counter(API.getMetricName(webhook.getApi().getName(), MetricRegistry.name("webhook", webhook.getName(), "coalesceDropped")));
+    }
+
+    public void shutdown() {
+        List<String> keys;
+        synchronized (this) {
+            running = false;
+            keys = new ArrayList<>(pending.keySet());
+        }
+        for (String key : keys) {
+            flush(key);
+        }
+    }
+
+    /**
+     * Add a delivery to its key's window, opening one if there isn't one. done runs once the delivery
+     * has been handled as part of the window, successfully or not.
+     */
+    public void add(WebhookKey webhookKey, String contentType, String body, Runnable done) throws APIException {
+        String key = webhookKey.getKey();
+        boolean full;
+        synchronized (this) {
+            if (running) {
+                Pending keyPending = pending.get(key);
+                if (keyPending == null) {
+                    keyPending = new Pending(webhookKey);
+                    pending.put(key, keyPending);
+                    keyPending.future = schedule(key);
+                } else {
+                    coalesced.inc();
+                }
+                keyPending.add(contentType, body, done);
+                full = keyPending.bodies.size() >= maxDeliveries && !keyPending.closing;
+            } else {
+                full = false;
+                key = null;
+            }
+        }
+        if (key != null) {
+            if (full) {
+                close(key);
+            }
+            return;
+        }
+
+        // Shut down, nothing would close the window
+        try {
+            handle(webhookKey, contentType, body);
+        } finally {
+            if (done != null) {
+                done.run();
+            }
+        }
+    }
+
+    private ScheduledFuture<?> schedule(String key) {
+        return webhook.getApi().getGatewayContext().getScheduledExecutorService().schedule(() -> close(key), window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hand the key's window to the queue to be handled. If the queue is full, the window stays open for
+     * another round.
+     */
+    private void close(String key) {
+        Pending keyPending;
+        synchronized (this) {
+            keyPending = pending.get(key);
+            if (keyPending == null || keyPending.closing) {
+                return;
+            }
+            keyPending.closing = true;
+            if (keyPending.future != null) {
+                keyPending.future.cancel(false);
+                keyPending.future = null;
+            }
+        }
+
+        if (!dispatch(() -> flush(key))) {
+            synchronized (this) {
+                if (running && pending.get(key) == keyPending) {
+                    keyPending.closing = false;
+                    keyPending.future = schedule(key);
+                }
+            }
+        }
+    }
+
+    private boolean dispatch(Runnable flush) {
+        WebhookQueue queue = webhook.getQueue();
+        if (queue != null && queue.isEnabled()) {
+            switch (queue.execute(flush)) {
+                case ACCEPTED:
+                    return true;
+                case REJECTED:
+                    return false;
+                default:
+                    // Not running (yet) - handled below rather than left open with nothing to close it
+                    break;
+            }
+        }
+        webhook.getApi().getExecutorManager().getProcessExecutor().execute(flush);
+        return true;
+    }
+
+    private void flush(String key) {
+        Pending keyPending;
+        synchronized (this) {
+            keyPending = pending.remove(key);
+        }
+        if (keyPending == null) {
+            return;
+        }
+        if (keyPending.future != null) {
+            keyPending.future.cancel(false);
+        }
+
+        try {
+            if (merge == Merge.ARRAY) {
+                JsonArray array = new JsonArray();
+                for (String body : keyPending.bodies) {
+                    try {
+                        array.add(JsonParser.parseString(body));
+                    } catch (JsonParseException ex) {
+                        array.add(new JsonPrimitive(body));
+                    }
+                }
+                handle(keyPending.webhookKey, "application/json", array.toString());
+            } else {
+                handle(keyPending.webhookKey, keyPending.contentType, keyPending.bodies.get(keyPending.bodies.size() - 1));
+            }
+        } catch (Throwable ex) {
+            // Already logged and reported on the handle function's status by handleResponse()
+        } finally {
+            keyPending.done.forEach(Runnable::run);
+        }
+    }
+
+    private void handle(WebhookKey webhookKey, String contentType, String body) throws APIException {
+        webhookKey.handleResponse(200, contentType, body);
+    }
+
+    private class Pending {
+        private final WebhookKey webhookKey;
+        private final List<String> bodies = new ArrayList<>();
+        private final List<Runnable> done = new ArrayList<>();
+        private String contentType;
+        private ScheduledFuture<?> future;
+        // Handed to the queue, which hasn't got to it yet
+        private boolean closing;
+
+        private Pending(WebhookKey webhookKey) {
+            this.webhookKey = webhookKey;
+        }
+
+        private void add(String contentType, String body, Runnable done) {
+            this.contentType = contentType;
+            if (merge == Merge.LAST) {
+                bodies.clear();
+            } else if (bodies.size() >= maxDeliveries) {
+                // Its done still runs with the window's: it was handled, by being dropped
+                bodies.remove(0);
+                dropped.inc();
+            }
+            bodies.add(body);
+            if (done != null) {
+                this.done.add(done);
+            }
+        }
+    }
+
+    public enum Merge {
+        LAST,
+        ARRAY
+    }
+}
@@ -7,6 +7,8 @@ import com.inductiveautomation.ignition.gateway.tags.managed.WriteHandler;
 import com.kyvislabs.api.client.common.exceptions.APIException;
 import com.kyvislabs.api.client.gateway.api.functions.Function;
 import com.kyvislabs.api.client.gateway.api.interfaces.VariableStore;
+import com.kyvislabs.api.client.gateway.api.valuestring.command.ResponseDocuments;
+import com.kyvislabs.api.client.gateway.managers.TagWriteBatch;
 
 import java.util.Date;
 import java.util.concurrent.ScheduledFuture;
@@ -191,7 +193,7 @@ public class WebhookKey implements VariableStore, WriteHandler {
     }
 
     public void handleResponse(int statusCode, String contentType, String response) throws APIException {
-        try {
+        try (TagWriteBatch batch = webhook.getApi().getTagManager().beginBatch(); ResponseDocuments documents = ResponseDocuments.open()) {
             response = webhook.getHandle().getResponseFormat().format(this, response);
             webhook.getHandle().getActions().handleResponse(this, statusCode, contentType, response);
         } catch (Throwable t) {
@@ -0,0 +1,354 @@
+package com.kyvislabs.api.client.gateway.api.webhooks;
+
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log for durable webhook queues (see WebhookQueue). Every delivery is appended and forced
+ * to disk before it's acknowledged, and whatever wasn't handled when the gateway stopped is replayed on
+ * the next startup - deliveries are handled at least once, not exactly once, so a handle function may
+ * see a delivery again after a crash.
+ * <p>
+ * The log lives next to the webhook's key file (see WebhookKeyStore), as segments named after the
+ * sequence number of their first record, rotated once they reach the configured size. Each record is
+ * its length and CRC32C followed by the sequence, key, content type and body; a torn record at the end
+ * of a segment (the gateway died mid-write) is cut off on open. A "checkpoint" file holds the sequence
+ * up to which everything has been handled, and segments entirely below it are deleted.
+ * <p>
+ * Appends use group commit: a writer forces the file for everything appended so far, and the writers
+ * that queued up behind it while it did find their records already on disk. Under load one fsync covers
+ * many deliveries instead of each paying for its own. The checkpoint is written at most once a second
+ * and isn't forced - losing it only means replaying a little more.
+ */
+public class WebhookLog implements AutoCloseable {
+    private static final String SEGMENT_EXTENSION = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int HEADER_SIZE = 8;
+    private static final long CHECKPOINT_INTERVAL = 1000;
+
+    private final Logger logger;
+    private final Path dir;
+    private final long segmentSize;
+    private final Object syncLock = new Object();
+    // Sequences appended but not handled yet
+    private final NavigableSet<Long> pending = new ConcurrentSkipListSet<>();
+    private FileChannel channel;
+    private long lastSequence;
+    private long checkpoint;
+    private long lastCheckpointWrite;
+    // Records up to here were in the log when it was opened and are replayed
+    private final long replayFrom;
+    private final long replayThrough;
+    private volatile long replayPosition = Long.MAX_VALUE;
+    private volatile boolean closed;
+    private long synced;
+
+    private WebhookLog(Path dir, long segmentSize, Logger logger) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.logger = logger;
+
+        Files.createDirectories(dir);
+        Path checkpointFile = dir.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpointFile)) {
+            checkpoint = Long.parseLong(Files.readString(checkpointFile).trim());
+        }
+        lastSequence = checkpoint;
+
+        for (Path segment : segments()) {
+            long size = Files.size(segment);
+            long valid = readSegment(segment, entry -> lastSequence = Math.max(lastSequence, entry.sequence()));
+            if (valid < size) {
+                logger.warn("Truncating webhook log segment '" + segment.getFileName() + "' from " + size + " to " + valid + " bytes");
+                try (FileChannel truncate = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    truncate.truncate(valid);
+                }
+            }
+        }
+
+        replayFrom = checkpoint;
+        replayThrough = lastSequence;
+        if (replayThrough > replayFrom) {
+            replayPosition = replayFrom;
+        }
+        synced = lastSequence;
+        openSegment();
+    }
+
+    public static WebhookLog open(Path dir, long segmentSize, Logger logger) throws IOException {
+        return new WebhookLog(dir, segmentSize, logger);
+    }
+
+    public static Path getDir(File dataDir, String apiName, String webhookName) {
+        return WebhookKeyStore.getFile(dataDir, apiName, webhookName).toPath().resolveSibling(webhookName + ".wal");
+    }
+
+    /**
+     * @return the number of deliveries left from before the log was opened, see replay()
+     */
+    public long getReplayCount() {
+        return replayThrough - replayFrom;
+    }
+
+    /**
+     * Append a delivery and wait until it's on disk.
+     *
+     * @return the delivery's sequence number, to pass to complete() once it's handled
+     */
+    public long append(String key, String contentType, String body) throws IOException {
+        long sequence;
+        synchronized (this) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            if (channel.position() >= segmentSize) {
+                rotate();
+            }
+
+            sequence = lastSequence + 1;
+            ByteBuffer record = encode(new Entry(sequence, key, contentType, body));
+            long position = channel.position();
+            try {
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+            } catch (IOException ex) {
+                // Don't leave a partial record in front of the next one
+                channel.truncate(position);
+                channel.position(position);
+                throw ex;
+            }
+            lastSequence = sequence;
+            pending.add(sequence);
+        }
+
+        sync(sequence);
+        return sequence;
+    }
+
+    private void sync(long sequence) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= sequence) {
+                return;
+            }
+
+            FileChannel channel;
+            long through;
+            synchronized (this) {
+                channel = this.channel;
+                through = lastSequence;
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException ex) {
+                // Rotated or closed in the meantime, both force the segment before closing it
+            }
+            synced = through;
+        }
+    }
+
+    /**
+     * Mark a delivery as handled (or given up on), so it isn't replayed.
+     */
+    public void complete(long sequence) {
+        pending.remove(sequence);
+        checkpoint(false);
+    }
+
+    /**
+     * Hand the deliveries left from before the log was opened to the consumer, oldest first. Stops early
+     * when the log is closed.
+     */
+    public void replay(Consumer<Entry> consumer) throws IOException {
+        try {
+            for (Path segment : segments()) {
+                if (closed || baseSequence(segment) > replayThrough) {
+                    break;
+                }
+                readSegment(segment, entry -> {
+                    if (closed || entry.sequence() <= replayFrom || entry.sequence() > replayThrough) {
+                        return;
+                    }
+                    consumer.accept(entry);
+                    replayPosition = entry.sequence();
+                    checkpoint(false);
+                });
+            }
+        } finally {
+            if (!closed) {
+                replayPosition = Long.MAX_VALUE;
+                checkpoint(false);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        checkpoint(true);
+        closed = true;
+        channel.force(false);
+        channel.close();
+    }
+
+    private synchronized void checkpoint(boolean force) {
+        long now = System.currentTimeMillis();
+        if (closed || (!force && now - lastCheckpointWrite < CHECKPOINT_INTERVAL)) {
+            return;
+        }
+
+        Long first = pending.isEmpty() ? null : pending.first();
+        long through = Math.min(first != null ? first - 1 : lastSequence, replayPosition);
+        if (through <= checkpoint) {
+            return;
+        }
+
+        lastCheckpointWrite = now;
+        try {
+            Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+            Files.writeString(tmp, Long.toString(through));
+            Files.move(tmp, dir.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            checkpoint = through;
+            compact();
+        } catch (IOException ex) {
+            logger.warn("Error writing webhook log checkpoint", ex);
+        }
+    }
+
+    /**
+     * Delete the segments whose records are all at or below the checkpoint. The active segment is always
+     * the last one and is never deleted.
+     */
+    private void compact() throws IOException {
+        List<Path> segments = segments();
+        for (int i = 0; i < segments.size() - 1; i++) {
+            if (baseSequence(segments.get(i + 1)) - 1 > checkpoint) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(segments.get(i));
+            } catch (IOException ex) {
+                // Still open for replay on some platforms, it goes with the next checkpoint
+                logger.debug("Error deleting webhook log segment '" + segments.get(i).getFileName() + "'", ex);
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        channel.force(false);
+        channel.close();
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        Path segment = dir.resolve(String.format("%020d", lastSequence + 1) + SEGMENT_EXTENSION);
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            // Zero padded, so sorting by name sorts by sequence
+            return files.filter(path -> path.getFileName().toString().endsWith(SEGMENT_EXTENSION)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private static long baseSequence(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length()));
+    }
+
+    /**
+     * @return the length of the segment up to the first record that's incomplete or fails its CRC
+     */
+    private static long readSegment(Path segment, Consumer<Entry> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (position + HEADER_SIZE <= size) {
+                header.clear();
+                readFully(channel, header, position);
+                int length = header.getInt(0);
+                int crc = header.getInt(4);
+                if (length <= 0 || position + HEADER_SIZE + length > size) {
+                    break;
+                }
+
+                ByteBuffer payload = ByteBuffer.allocate(length);
+                readFully(channel, payload, position + HEADER_SIZE);
+                CRC32C checksum = new CRC32C();
+                checksum.update(payload.array());
+                if ((int) checksum.getValue() != crc) {
+                    break;
+                }
+
+                consumer.accept(decode(payload.array()));
+                position += HEADER_SIZE + length;
+            }
+            return position;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of webhook log segment");
+            }
+        }
+    }
+
+    private static ByteBuffer encode(Entry entry) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(entry.sequence());
+        out.writeUTF(entry.key());
+        out.writeUTF(entry.contentType() != null ? entry.contentType() : "");
+        byte[] body = entry.body().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(body.length);
+        out.write(body);
+        byte[] payload = bytes.toByteArray();
+
+        CRC32C checksum = new CRC32C();
+        checksum.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) checksum.getValue()).put(payload).flip();
+        return record;
+    }
+
+    private static Entry decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        long sequence = in.readLong();
+        String key = in.readUTF();
+        String contentType = in.readUTF();
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        return new Entry(sequence, key, contentType.isEmpty() ? null : contentType, new String(body, StandardCharsets.UTF_8));
+    }
+
+    public record Entry(long sequence, String key, String contentType, String body) {}
+}
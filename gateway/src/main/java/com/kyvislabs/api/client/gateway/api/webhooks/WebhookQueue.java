@@ -0,0 +1,314 @@
+package com.kyvislabs.api.client.gateway.api.webhooks;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.inductiveautomation.ignition.gateway.metrics.MetricBuilder;
+import com.kyvislabs.api.client.common.exceptions.APIException;
+import com.kyvislabs.api.client.gateway.api.API;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue between the webhook servlet and the handle function. Deliveries used to be handled on
+ * the web server's request thread, actions and tag writes included, so a burst from a busy upstream
+ * could tie up the threads serving everything else on the gateway. Now the servlet only queues the body
+ * and answers 202 Accepted; a small pool of the webhook's own threads works through the queue (one by
+ * default, which keeps deliveries in the order they arrived).
+ * <p>
+ * When the queue is full the overflow policy decides: "reject" answers 429 Too Many Requests with a
+ * Retry-After, so upstreams that retry deliver again later; "dropOldest" discards the longest waiting
+ * delivery to make room, for feeds where only the latest state matters. Queue depth, the time deliveries
+ * wait (lag) and both overflow outcomes are published as metrics.
+ * <p>
+ * The queue itself is in memory, so deliveries still waiting when the gateway stops are lost. With
+ * "durable" every delivery is first written to a WebhookLog and only acknowledged once it's on disk;
+ * whatever wasn't handled is replayed on the next startup, before any new delivery.
+ */
+public class WebhookQueue {
+    private static final String PREFIX = "webhook";
+
+    private final Webhook webhook;
+    private final boolean enabled;
+    private final int size;
+    private final int threads;
+    private final Overflow overflow;
+    private final int retryAfter;
+    private final boolean durable;
+    private final int segmentSize;
+    private final Logger logger;
+    private ThreadPoolExecutor executor;
+    private WebhookLog log;
+    private Timer lag;
+    private Timer append;
+    private Counter rejected;
+    private Counter dropped;
+
+    private WebhookQueue(Webhook webhook, boolean enabled, int size, int threads, Overflow overflow, int retryAfter, boolean durable, int segmentSize) {
+        this.logger = LoggerFactory.getLogger(String.format("API.%s.Webhook.%s.Queue", webhook.getApi().getName(), webhook.getName()));
+        this.webhook = webhook;
+        this.enabled = enabled;
+        this.size = size;
+        this.threads = threads;
+        this.overflow = overflow;
+        this.retryAfter = retryAfter;
+        this.durable = durable;
+        this.segmentSize = segmentSize;
+    }
+
+    public static WebhookQueue parseQueue(Webhook webhook, Map webhookMap) {
+        Object queueObj = webhookMap.getOrDefault("queue", true);
+        if (queueObj instanceof Map) {
+            Map queueMap = (Map) queueObj;
+            return new WebhookQueue(webhook,
+                    Boolean.parseBoolean(queueMap.getOrDefault("enabled", true).toString()),
+                    Integer.parseInt(queueMap.getOrDefault("size", 1000).toString()),
+                    Integer.parseInt(queueMap.getOrDefault("threads", 1).toString()),
+                    Overflow.valueOf(queueMap.getOrDefault("overflow", "reject").toString().toUpperCase()),
+                    Integer.parseInt(queueMap.getOrDefault("retryAfter", 5).toString()),
+                    Boolean.parseBoolean(queueMap.getOrDefault("durable", false).toString()),
+                    Integer.parseInt(queueMap.getOrDefault("segmentSize", 16).toString()));
+        }
+        return new WebhookQueue(webhook, Boolean.parseBoolean(queueObj.toString()), 1000, 1, Overflow.REJECT, 5, false, 16);
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized int getRetryAfter() {
+        return retryAfter;
+    }
+
+    private String getMetricName(String metric) {
+        return API.getMetricName(webhook.getApi().getName(), MetricRegistry.name(PREFIX, webhook.getName(), "queue", metric));
+    }
+
+    /**
+     * Removes the queue metrics of every webhook of the given API.
+     */
+    public static void removeAll(MetricRegistry registry, String apiName) {
+        registry.removeMatching(MetricFilter.startsWith(API.getMetricName(apiName, PREFIX) + "."));
+    }
+
+    public synchronized void startup() throws IOException {
+        if (!enabled || executor != null) {
+            return;
+        }
+
+        if (durable) {
+            log = WebhookLog.open(WebhookLog.getDir(webhook.getApi().getGatewayContext().getSystemManager().getDataDir(), webhook.getApi().getName(), webhook.getName()), segmentSize * 1024L * 1024L, logger);
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        String threadName = String.format("api-client-webhook-%s-%s-", webhook.getApi().getName(), webhook.getName());
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(size), runnable -> {
+            Thread thread = new Thread(runnable, threadName + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, overflow == Overflow.DROPOLDEST ? new DropOldestPolicy() : new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        MetricRegistry registry = webhook.getApi().getGatewayContext().getMetricRegistry();
+        ThreadPoolExecutor queueExecutor = executor;
+        new MetricBuilder().registry(registry).name(getMetricName("depth")).description("Webhook Queue Depth").getOrAddGauge(() -> queueExecutor.getQueue().size());
+        lag = registry.timer(getMetricName("lag"));
+        rejected = registry.counter(getMetricName("rejected"));
+        dropped = registry.counter(getMetricName("dropped"));
+        append = registry.timer(getMetricName("append"));
+
+        if (log != null && log.getReplayCount() > 0) {
+            logger.info("Replaying " + log.getReplayCount() + " webhook deliveries from the log");
+            WebhookLog replayLog = log;
+            // First in line, so replayed deliveries are handled before new ones
+            executor.execute(() -> {
+                try {
+                    replayLog.replay(entry -> {
+                        try {
+                            // Not through the coalescing window - the log moves on as soon as this returns
+                            webhook.getWebhookKey(entry.key()).handleResponse(200, entry.contentType(), entry.body());
+                        } catch (APIException ex) {
+                            // Unknown key, or already logged and reported on the handle function's status
+                            logger.debug("Error replaying webhook delivery " + entry.sequence(), ex);
+                        }
+                    });
+                } catch (IOException ex) {
+                    logger.error("Error replaying webhook log", ex);
+                }
+            });
+        }
+    }
+
+    public void shutdown() {
+        ThreadPoolExecutor executor;
+        WebhookLog log;
+        synchronized (this) {
+            executor = this.executor;
+            log = this.log;
+            this.executor = null;
+            this.log = null;
+        }
+        if (executor != null) {
+            if (log != null) {
+                // Deliveries still queued are in the log and replayed on the next startup
+                executor.shutdownNow();
+                try {
+                    log.close();
+                } catch (IOException ex) {
+                    logger.warn("Error closing webhook log", ex);
+                }
+            } else {
+                // Deliveries already queued are still handled, new ones get 503 until started again
+                executor.shutdown();
+            }
+            webhook.getApi().getGatewayContext().getMetricRegistry().remove(getMetricName("depth"));
+        }
+    }
+
+    /**
+     * Queue a delivery for the handle function.
+     *
+     * @return ACCEPTED, REJECTED if the queue is full and the policy is reject, or UNAVAILABLE if the
+     * webhook isn't running
+     */
+    public Result submit(WebhookKey webhookKey, String contentType, String body) {
+        ThreadPoolExecutor executor;
+        WebhookLog log;
+        synchronized (this) {
+            executor = this.executor;
+            log = this.log;
+        }
+        if (executor == null || executor.isShutdown()) {
+            return Result.UNAVAILABLE;
+        }
+
+        long received = System.nanoTime();
+        long sequence = 0;
+        if (log != null) {
+            try {
+                sequence = log.append(webhookKey.getKey(), contentType, body);
+                append.update(System.nanoTime() - received, TimeUnit.NANOSECONDS);
+            } catch (IOException ex) {
+                logger.error("Error writing webhook delivery to the log", ex);
+                return Result.UNAVAILABLE;
+            }
+        }
+
+        try {
+            executor.execute(new Delivery(webhookKey, contentType, body, log, sequence, received));
+            return Result.ACCEPTED;
+        } catch (RejectedExecutionException ex) {
+            if (log != null) {
+                // Not acknowledged, so the sender delivers it again
+                log.complete(sequence);
+            }
+            if (executor.isShutdown()) {
+                return Result.UNAVAILABLE;
+            }
+            rejected.inc();
+            return Result.REJECTED;
+        }
+    }
+
+    /**
+     * Run a task on the queue's threads, behind the deliveries already waiting and taking up a place in
+     * the queue the same way - the coalescer's flushes (see WebhookCoalescer), which would otherwise run
+     * outside of the queue and its size. A full queue rejects the task whatever the overflow policy: the
+     * drop oldest policy only ever drops deliveries.
+     *
+     * @return ACCEPTED, REJECTED if the queue is full, or UNAVAILABLE if the webhook isn't running
+     */
+    public Result execute(Runnable task) {
+        ThreadPoolExecutor executor;
+        synchronized (this) {
+            executor = this.executor;
+        }
+        if (executor == null || executor.isShutdown()) {
+            return Result.UNAVAILABLE;
+        }
+
+        try {
+            executor.execute(task);
+            return Result.ACCEPTED;
+        } catch (RejectedExecutionException ex) {
+            return executor.isShutdown() ? Result.UNAVAILABLE : Result.REJECTED;
+        }
+    }
+
+    private class Delivery implements Runnable {
+        private final WebhookKey webhookKey;
+        private final String contentType;
+        private final String body;
+        private final WebhookLog log;
+        private final long sequence;
+        private final long received;
+
+        private Delivery(WebhookKey webhookKey, String contentType, String body, WebhookLog log, long sequence, long received) {
+            this.webhookKey = webhookKey;
+            this.contentType = contentType;
+            this.body = body;
+            this.log = log;
+            this.sequence = sequence;
+            this.received = received;
+        }
+
+        @Override
+        public void run() {
+            lag.update(System.nanoTime() - received, TimeUnit.NANOSECONDS);
+            try {
+                webhook.deliver(webhookKey, contentType, body, this::complete);
+            } catch (Throwable ex) {
+                // Already logged and reported on the handle function's status by handleResponse()
+            }
+        }
+
+        private void complete() {
+            if (log != null) {
+                log.complete(sequence);
+            }
+        }
+    }
+
+    private class DropOldestPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Webhook queue shut down");
+            }
+            if (!(runnable instanceof Delivery)) {
+                throw new RejectedExecutionException("Webhook queue full");
+            }
+            // The oldest delivery, not just the oldest task: a coalescer's flush stands for a whole window
+            for (Runnable queued : executor.getQueue()) {
+                if (queued instanceof Delivery && executor.getQueue().remove(queued)) {
+                    dropped.inc();
+                    ((Delivery) queued).complete();
+                    executor.execute(runnable);
+                    return;
+                }
+            }
+            throw new RejectedExecutionException("Webhook queue full");
+        }
+    }
+
+    public enum Overflow {
+        REJECT,
+        DROPOLDEST
+    }
+
+    public enum Result {
+        ACCEPTED,
+        REJECTED,
+        UNAVAILABLE
+    }
+}
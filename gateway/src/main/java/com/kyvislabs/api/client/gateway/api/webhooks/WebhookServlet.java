@@ -1,5 +1,6 @@
 package com.kyvislabs.api.client.gateway.api.webhooks;
 
+import com.kyvislabs.api.client.common.exceptions.APIException;
 import com.kyvislabs.api.client.gateway.api.API;
 import com.kyvislabs.api.client.gateway.managers.APIManager;
 import org.apache.commons.io.IOUtils;
@@ -33,18 +34,51 @@ public class WebhookServlet extends HttpServlet {
             logger.debug("Webhook response: " + response);
 
             String[] uriParts = req.getRequestURI().split("/");
+            if (uriParts.length < 5) {
+                resp.sendError(404, "Webhook not found");
+                return;
+            }
 
-            if (uriParts.length >= 5) {
-                // URI: /res/api-client/webhook/{apiName}/{webhookName}/{webhookId}
-                String apiName = uriParts[uriParts.length - 3];
-                String webhookName = uriParts[uriParts.length - 2];
-                String webhookId = uriParts[uriParts.length - 1];
+            // URI: /res/api-client/webhook/{apiName}/{webhookName}/{webhookId}
+            String apiName = uriParts[uriParts.length - 3];
+            String webhookName = uriParts[uriParts.length - 2];
+            String webhookId = uriParts[uriParts.length - 1];
+            Webhook webhook;
+            WebhookKey webhookKey;
+            try {
                 API api = APIManager.get().getAPI(apiName);
-                Webhook webhook = api.getWebhooks().getWebhook(webhookName);
-                webhook.getWebhookKey(webhookId).handleResponse(200, req.getContentType(), response);
+                webhook = api.getWebhooks().getWebhook(webhookName);
+                webhookKey = webhook.getWebhookKey(webhookId);
+            } catch (APIException ex) {
+                logger.warn("Webhook: " + ex.getMessage());
+                resp.sendError(404, "Webhook not found");
+                return;
+            }
+
+            WebhookQueue queue = webhook.getQueue();
+            if (!queue.isEnabled()) {
+                webhook.deliver(webhookKey, req.getContentType(), response, null);
+                resp.setStatus(200);
+                return;
+            }
+
+            switch (queue.submit(webhookKey, req.getContentType(), response)) {
+                case ACCEPTED:
+                    resp.setStatus(202);
+                    break;
+                case REJECTED:
+                    resp.setHeader("Retry-After", String.valueOf(queue.getRetryAfter()));
+                    resp.sendError(429, "Too many requests");
+                    break;
+                default:
+                    resp.sendError(503, "Webhook not running");
+                    break;
             }
         } catch (Throwable ex) {
             logger.error("Webhook: Error processing post response", ex);
+            if (!resp.isCommitted()) {
+                resp.sendError(500, "Internal server error");
+            }
         }
     }
 
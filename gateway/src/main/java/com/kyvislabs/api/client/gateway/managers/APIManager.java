@@ -64,8 +64,13 @@ public class APIManager {
 
     private GatewayContext gatewayContext;
     private TagManager tagManager;
+    private ExecutorManager executorManager;
+    private CronManager cronManager;
+    private StoreFileManager storeFileManager;
+    private TLSContextManager tlsContextManager;
     private Map<String, API> apiConfigurations;
     private KeyStore keyStore;
+    private String keyStoreFingerprint;
     private APIResourceHandler resourceHandler;
     // One lock per API name so updateResource()'s read-modify-write can't race with itself. Two
     // functions on independent scheduled-executor threads (e.g. an OAuth2 token refresh and a
@@ -76,6 +81,10 @@ public class APIManager {
 
     public APIManager() {
         tagManager = new TagManager();
+        executorManager = new ExecutorManager();
+        cronManager = new CronManager();
+        storeFileManager = new StoreFileManager();
+        tlsContextManager = new TLSContextManager();
         apiConfigurations = new ConcurrentHashMap<>();
     }
 
@@ -88,17 +97,23 @@ public class APIManager {
                     .getParent().resolve("webserver").resolve("ssl.pfx");
             File sslPfx = new File(path.toString());
             keyStore.load(new FileInputStream(sslPfx), "ignition".toCharArray());
+            keyStoreFingerprint = TLSContextManager.fingerprint(keyStore);
         } catch (Throwable t) {
             logger.warn("Ignition is not set up for SSL: " + t.getMessage());
             keyStore = null;
+            keyStoreFingerprint = null;
         }
 
         tagManager.init(this.gatewayContext);
+        storeFileManager.init(this.gatewayContext);
     }
 
     public void startup() throws Exception {
         logger.debug("Starting up");
         tagManager.startup();
+        executorManager.startup();
+        cronManager.startup();
+        storeFileManager.startup();
         registerUDTs();
 
         gatewayContext.getWebResourceManager().addServlet(OAuth2.AUTH_TYPE, OAuth2Servlet.class);
@@ -149,6 +164,30 @@ public class APIManager {
             }
         }
 
+        try {
+            cronManager.shutdown();
+        } catch (Throwable ex) {
+            logger.error("Error shutting down cron manager", ex);
+        }
+
+        try {
+            storeFileManager.shutdown();
+        } catch (Throwable ex) {
+            logger.error("Error shutting down store file manager", ex);
+        }
+
+        try {
+            tlsContextManager.shutdown();
+        } catch (Throwable ex) {
+            logger.error("Error shutting down TLS context manager", ex);
+        }
+
+        try {
+            executorManager.shutdown();
+        } catch (Throwable ex) {
+            logger.error("Error shutting down executor manager", ex);
+        }
+
         try {
             tagManager.shutdown();
         } catch (Throwable ex) {
@@ -184,10 +223,33 @@ public class APIManager {
         return tagManager;
     }
 
+    public ExecutorManager getExecutorManager() {
+        return executorManager;
+    }
+
+    public CronManager getCronManager() {
+        return cronManager;
+    }
+
+    public StoreFileManager getStoreFileManager() {
+        return storeFileManager;
+    }
+
+    public TLSContextManager getTLSContextManager() {
+        return tlsContextManager;
+    }
+
     public KeyStore getKeyStore() {
         return keyStore;
     }
 
+    /**
+     * See TLSContextManager.fingerprint()
+     */
+    public String getKeyStoreFingerprint() {
+        return keyStoreFingerprint;
+    }
+
     public API getAPI(String name) throws APIException {
         if (apiConfigurations.containsKey(name)) {
             return apiConfigurations.get(name);
@@ -0,0 +1,241 @@
+package com.kyvislabs.api.client.gateway.managers;
+
+import it.sauronsoftware.cron4j.SchedulingPattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Module-wide cron engine for CRON schedules. Previously every cron function started its own cron4j
+ * Scheduler, each with a thread waking up once a minute to check its one pattern - an API with 80 cron
+ * functions meant 80 mostly idle threads. Here every registered pattern sits in a single queue ordered
+ * by its next fire time, and one thread sleeps until the head is due, then dispatches everything due
+ * in one pass. Dispatching only hands the task to the executor it was registered with; the cron thread
+ * never runs a function itself, so a slow one can't delay the others.
+ * <p>
+ * Patterns keep cron4j's syntax (SchedulingPattern) and are evaluated in the gateway's time zone. Fire
+ * times are found field-wise: day by day against the pattern's date fields alone, and only a day that
+ * matches is checked minute by minute. A search costs at most a few thousand checks whatever the pattern,
+ * even for one that never fires, and the dispatch thread does it for the tasks that fired outside the
+ * queue's lock.
+ */
+public class CronManager {
+    private final Logger logger = LoggerFactory.getLogger("API.Cron.Manager");
+
+    // Enough to reach a leap day falling on a given weekday; a pattern that doesn't match within
+    // this never fires (e.g. "0 0 30 2 *")
+    private static final int SEARCH_LIMIT_DAYS = 366 * 8;
+
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<String, Task> tasks = new ConcurrentHashMap<>();
+    private final PriorityQueue<Task> queue = new PriorityQueue<>(Comparator.comparingLong(Task::getNextFireTime));
+    private Thread thread;
+    private boolean running;
+
+    public void startup() {
+        logger.debug("Starting up");
+        synchronized (queue) {
+            running = true;
+        }
+        thread = new Thread(this::dispatchLoop, "api-client-cron");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void shutdown() {
+        logger.debug("Shutting down");
+        synchronized (queue) {
+            running = false;
+            queue.clear();
+            queue.notifyAll();
+        }
+        tasks.clear();
+    }
+
+    /**
+     * Register a cron pattern.
+     *
+     * @param cron     the cron4j scheduling pattern
+     * @param task     run on each fire time
+     * @param executor where the task is run. It's called on the cron thread, one due task after another,
+     *                 so either it or the task has to hand the actual work off to another thread - an
+     *                 inline executor is fine for a task that only starts something asynchronous
+     * @return the id to deschedule() the task and look up its next fire time with
+     * @throws it.sauronsoftware.cron4j.InvalidPatternException if the pattern is not valid
+     */
+    public String schedule(String cron, Runnable task, Executor executor) {
+        SchedulingPattern pattern = new SchedulingPattern(cron);
+        Task t = new Task(String.valueOf(ids.incrementAndGet()), pattern, getDays(pattern), task, executor);
+        long next = nextFireTime(t.pattern, t.days, System.currentTimeMillis());
+        if (next < 0) {
+            logger.warn("Cron pattern '" + cron + "' never fires, not scheduling it");
+            return t.id;
+        }
+        t.nextFireTime = next;
+        tasks.put(t.id, t);
+        synchronized (queue) {
+            queue.add(t);
+            // Wake the dispatch thread in case this is due before whatever it is waiting on
+            queue.notifyAll();
+        }
+        return t.id;
+    }
+
+    public void deschedule(String id) {
+        Task t = tasks.remove(id);
+        if (t != null) {
+            synchronized (queue) {
+                queue.remove(t);
+            }
+        }
+    }
+
+    /**
+     * @return the next time the task fires, or null if it is not scheduled
+     */
+    public Date getNextFireTime(String id) {
+        Task t = tasks.get(id);
+        if (t == null) {
+            return null;
+        }
+        synchronized (queue) {
+            return new Date(t.nextFireTime);
+        }
+    }
+
+    private void dispatchLoop() {
+        List<Task> due = new ArrayList<>();
+        while (true) {
+            synchronized (queue) {
+                try {
+                    while (running) {
+                        Task head = queue.peek();
+                        long now = System.currentTimeMillis();
+                        if (head == null) {
+                            queue.wait();
+                        } else if (head.nextFireTime > now) {
+                            queue.wait(head.nextFireTime - now);
+                        } else {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (!running) {
+                    return;
+                }
+
+                long now = System.currentTimeMillis();
+                while (!queue.isEmpty() && queue.peek().nextFireTime <= now) {
+                    due.add(queue.poll());
+                }
+            }
+
+            // Requeue before dispatching, counting from the minute that fired so a late wakeup can't
+            // fire the same minute twice. Searched outside the lock, so schedule() and the other calls
+            // don't wait on it; a task descheduled meanwhile is gone from tasks and isn't put back.
+            long now = System.currentTimeMillis();
+            long[] next = new long[due.size()];
+            for (int i = 0; i < due.size(); i++) {
+                Task t = due.get(i);
+                next[i] = nextFireTime(t.pattern, t.days, Math.max(now, t.nextFireTime));
+            }
+            synchronized (queue) {
+                for (int i = 0; i < due.size(); i++) {
+                    Task t = due.get(i);
+                    if (running && next[i] >= 0 && tasks.containsKey(t.id)) {
+                        t.nextFireTime = next[i];
+                        queue.add(t);
+                    }
+                }
+            }
+
+            for (Task t : due) {
+                try {
+                    t.executor.execute(t.task);
+                } catch (RejectedExecutionException ex) {
+                    logger.warn("Cron task " + t.id + " was rejected, skipping this run");
+                } catch (Throwable ex) {
+                    logger.error("Error dispatching cron task " + t.id, ex);
+                }
+            }
+            due.clear();
+        }
+    }
+
+    /**
+     * The pattern with the minute and hour of each of its alternatives ("|") set to "*", so it matches
+     * any time of the days the pattern can fire on.
+     */
+    static SchedulingPattern getDays(SchedulingPattern pattern) {
+        StringBuilder days = new StringBuilder();
+        for (String alternative : pattern.toString().split("\\|")) {
+            String[] fields = alternative.trim().split("\\s+");
+            if (days.length() > 0) {
+                days.append('|');
+            }
+            days.append("* * ").append(fields[2]).append(' ').append(fields[3]).append(' ').append(fields[4]);
+        }
+        return new SchedulingPattern(days.toString());
+    }
+
+    /**
+     * @param days the pattern's getDays()
+     * @return the start of the first minute after the one containing from that matches the pattern, or -1
+     */
+    static long nextFireTime(SchedulingPattern pattern, SchedulingPattern days, long from) {
+        TimeZone timeZone = TimeZone.getDefault();
+        long minute = TimeUnit.MINUTES.toMillis(1);
+        long time = from - Math.floorMod(from, minute) + minute;
+
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(time);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        for (int i = 0; i < SEARCH_LIMIT_DAYS; i++) {
+            long dayStart = Math.max(calendar.getTimeInMillis(), time);
+            // Days are 23 to 25 hours long around DST changes, so the calendar works out where they end
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            long dayEnd = calendar.getTimeInMillis();
+            if (days.match(timeZone, dayStart)) {
+                for (long t = dayStart; t < dayEnd; t += minute) {
+                    if (pattern.match(timeZone, t)) {
+                        return t;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static class Task {
+        private final String id;
+        private final SchedulingPattern pattern;
+        private final SchedulingPattern days;
+        private final Runnable task;
+        private final Executor executor;
+        private long nextFireTime;
+
+        Task(String id, SchedulingPattern pattern, SchedulingPattern days, Runnable task, Executor executor) {
+            this.id = id;
+            this.pattern = pattern;
+            this.days = days;
+            this.task = task;
+            this.executor = executor;
+        }
+
+        long getNextFireTime() {
+            return nextFireTime;
+        }
+    }
+}
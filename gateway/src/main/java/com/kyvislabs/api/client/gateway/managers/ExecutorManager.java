@@ -0,0 +1,125 @@
+package com.kyvislabs.api.client.gateway.managers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Module-wide thread pools for the async function pipeline (see FunctionExecutor.executeAsync()).
+ * Kept separate from the gateway's shared ScheduledExecutorService on purpose - that pool also drives
+ * every other module's timers, and a slow upstream parking its threads on network I/O starved all of
+ * them. The pools here are bounded: "process" runs the CPU-bound stages (request setup, response
+ * formatting, actions, tag writes) and "io" runs whatever still has to block on the network (the
+ * url connection executor, streaming a response body). When a pool's queue fills up the submitting
+ * thread runs the stage itself, which pushes back on whoever is producing the work instead of queueing
+ * without limit. Pool sizes can be overridden with the system properties below (wrapper.java.additional
+ * in ignition.conf).
+ * <p>
+ * Setting the virtualThreads property to true turns on a module-wide mode where schedules stop holding
+ * threads of their own: one shared timer thread triggers every TIMER schedule (CRON schedules already share
+ * the CronManager's thread), and each run - including tag-triggered ones, which would otherwise run inline on
+ * the tag event thread - is handed to the run executor. That executor creates a virtual thread per run
+ * when the gateway's JVM supports them (Java 21+, looked up reflectively since the module is built for
+ * 17); otherwise it falls back to a bounded pool of platform threads.
+ */
+public class ExecutorManager {
+    private final Logger logger = LoggerFactory.getLogger("API.Executor.Manager");
+
+    public static final String PROCESS_THREADS_PROPERTY = "com.kyvislabs.api.client.processThreads";
+    public static final String IO_THREADS_PROPERTY = "com.kyvislabs.api.client.ioThreads";
+    public static final String VIRTUAL_THREADS_PROPERTY = "com.kyvislabs.api.client.virtualThreads";
+    public static final String RUN_THREADS_PROPERTY = "com.kyvislabs.api.client.runThreads";
+    private static final int QUEUE_SIZE = 10000;
+
+    private ThreadPoolExecutor processExecutor;
+    private ThreadPoolExecutor ioExecutor;
+    private boolean virtualThreads;
+    private ExecutorService runExecutor;
+    private ScheduledExecutorService timer;
+
+    public void startup() {
+        logger.debug("Starting up");
+        processExecutor = newExecutor("process", Integer.getInteger(PROCESS_THREADS_PROPERTY, Math.max(2, Runtime.getRuntime().availableProcessors())));
+        ioExecutor = newExecutor("io", Integer.getInteger(IO_THREADS_PROPERTY, 32));
+
+        virtualThreads = Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY);
+        if (virtualThreads) {
+            runExecutor = newVirtualThreadExecutor();
+            if (runExecutor == null) {
+                logger.info("Virtual threads are not supported by this JVM, running functions on a bounded thread pool instead");
+                runExecutor = newExecutor("run", Integer.getInteger(RUN_THREADS_PROPERTY, 64));
+            } else {
+                logger.info("Running functions on virtual threads");
+            }
+            timer = Executors.newSingleThreadScheduledExecutor(newThreadFactory("timer"));
+        }
+    }
+
+    public void shutdown() {
+        logger.debug("Shutting down");
+        if (processExecutor != null) {
+            processExecutor.shutdown();
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdown();
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        if (runExecutor != null) {
+            runExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Whether the virtualThreads mode described above is on.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public Executor getRunExecutor() {
+        return runExecutor;
+    }
+
+    public ScheduledExecutorService getTimer() {
+        return timer;
+    }
+
+    public Executor getProcessExecutor() {
+        return processExecutor;
+    }
+
+    public Executor getIoExecutor() {
+        return ioExecutor;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            // Not there before Java 21 (or a preview feature not switched on, on 19/20)
+            return null;
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, String.format("api-client-%s-%d", name, count.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static ThreadPoolExecutor newExecutor(String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(QUEUE_SIZE), newThreadFactory(name), new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,163 @@
+package com.kyvislabs.api.client.gateway.managers;
+
+import com.inductiveautomation.ignition.gateway.model.GatewayContext;
+import com.kyvislabs.api.client.common.scripting.AbstractScriptFunctionsScriptModule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the files stored by storefile actions and the access tokens they're served under (see
+ * StoreFileServlet). Each stored file has one "&lt;token&gt;.token" file next to it in the API's directory,
+ * holding the file name and its content type on separate lines. Those stay the source of truth across
+ * restarts, but are only read once, at startup - previously every download read its token file, and
+ * every store opened every token file in the directory to find the one it replaces.
+ */
+public class StoreFileManager {
+    private final Logger logger = LoggerFactory.getLogger("API.StoreFile.Manager");
+    public static final String TOKEN_EXTENSION = ".token";
+    // FILE responses being downloaded, see createResponseFile()
+    public static final String RESPONSE_PREFIX = ".response-";
+
+    private GatewayContext gatewayContext;
+    // API name -> access token -> stored file
+    private final Map<String, Map<String, StoredFile>> files = new ConcurrentHashMap<>();
+    // API name -> file name -> its current access token
+    private final Map<String, Map<String, String>> tokens = new ConcurrentHashMap<>();
+
+    public void init(GatewayContext gatewayContext) {
+        this.gatewayContext = gatewayContext;
+    }
+
+    public void startup() {
+        logger.debug("Starting up");
+        File[] apiDirs = getModuleDir().listFiles(File::isDirectory);
+        if (apiDirs != null) {
+            for (File apiDir : apiDirs) {
+                load(apiDir.getName(), apiDir.toPath());
+            }
+        }
+    }
+
+    public void shutdown() {
+        logger.debug("Shutting down");
+        files.clear();
+        tokens.clear();
+    }
+
+    public File getModuleDir() {
+        File dataDir = gatewayContext.getSystemManager().getDataDir();
+        return new File(dataDir, "modules/" + AbstractScriptFunctionsScriptModule.MODULE_ID);
+    }
+
+    public File getApiDir(String api) {
+        return new File(getModuleDir(), api);
+    }
+
+    /**
+     * A file for a FILE response of one of the API's functions to be downloaded to (see
+     * Function.ResponseType.FILE). It's in the API's directory, next to what storefile actions store, so
+     * storing it gives it a second name instead of writing it out again; named so it's never taken for
+     * a stored file or an API, and anything a crash leaves behind is deleted at the next startup.
+     */
+    public Path createResponseFile(String api) throws IOException {
+        Path apiDir = getApiDir(api).toPath();
+        Files.createDirectories(apiDir);
+        return Files.createTempFile(apiDir, RESPONSE_PREFIX, ".tmp");
+    }
+
+    private synchronized void load(String api, Path apiDir) {
+        try (DirectoryStream<Path> responseFiles = Files.newDirectoryStream(apiDir, RESPONSE_PREFIX + "*")) {
+            for (Path responseFile : responseFiles) {
+                Files.deleteIfExists(responseFile);
+            }
+        } catch (IOException ex) {
+            logger.warn("Error deleting response files left in '" + apiDir + "'", ex);
+        }
+
+        try (DirectoryStream<Path> tokenFiles = Files.newDirectoryStream(apiDir, "*" + TOKEN_EXTENSION)) {
+            for (Path tokenFile : tokenFiles) {
+                try {
+                    List<String> lines = Files.readAllLines(tokenFile);
+                    if (lines.isEmpty()) {
+                        continue;
+                    }
+                    String fileName = lines.get(0).trim();
+                    // Token files written before the content type was stored only have the name
+                    String contentType = lines.size() > 1 ? lines.get(1).trim() : "";
+                    if (contentType.isEmpty()) {
+                        contentType = Files.probeContentType(apiDir.resolve(fileName));
+                    }
+                    String fileToken = tokenFile.getFileName().toString();
+                    String accessToken = fileToken.substring(0, fileToken.length() - TOKEN_EXTENSION.length());
+
+                    String previous = getTokens(api).get(fileName);
+                    if (previous != null) {
+                        // Left over from an interrupted store - keep whichever is newer
+                        Path previousFile = apiDir.resolve(previous + TOKEN_EXTENSION);
+                        if (Files.getLastModifiedTime(previousFile).compareTo(Files.getLastModifiedTime(tokenFile)) > 0) {
+                            Files.deleteIfExists(tokenFile);
+                            continue;
+                        }
+                        Files.deleteIfExists(previousFile);
+                        getFiles(api).remove(previous);
+                    }
+
+                    getFiles(api).put(accessToken, new StoredFile(fileName, contentType));
+                    getTokens(api).put(fileName, accessToken);
+                } catch (IOException ex) {
+                    logger.warn("Error reading token file '" + tokenFile + "'", ex);
+                }
+            }
+            logger.debug("Loaded " + getFiles(api).size() + " stored files for API '" + api + "'");
+        } catch (IOException ex) {
+            logger.warn("Error listing token files in '" + apiDir + "'", ex);
+        }
+    }
+
+    private Map<String, StoredFile> getFiles(String api) {
+        return files.computeIfAbsent(api, k -> new ConcurrentHashMap<>());
+    }
+
+    private Map<String, String> getTokens(String api) {
+        return tokens.computeIfAbsent(api, k -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Makes a file just written to the API's directory available under accessToken. Whatever token the
+     * file was available under before stops working.
+     */
+    public synchronized void store(String api, String fileName, String contentType, String accessToken) throws IOException {
+        Path apiDir = getApiDir(api).toPath();
+        Files.writeString(apiDir.resolve(accessToken + TOKEN_EXTENSION), fileName + "\n" + (contentType == null ? "" : contentType));
+
+        String previous = getTokens(api).put(fileName, accessToken);
+        getFiles(api).put(accessToken, new StoredFile(fileName, contentType));
+        if (previous != null) {
+            getFiles(api).remove(previous);
+            try {
+                Files.deleteIfExists(apiDir.resolve(previous + TOKEN_EXTENSION));
+            } catch (IOException ex) {
+                logger.warn("Error removing token file '" + previous + TOKEN_EXTENSION + "'", ex);
+            }
+        }
+    }
+
+    /**
+     * The file available under accessToken, or null if the token is unknown.
+     */
+    public StoredFile getFile(String api, String accessToken) {
+        Map<String, StoredFile> apiFiles = files.get(api);
+        return apiFiles == null ? null : apiFiles.get(accessToken);
+    }
+
+    public record StoredFile(String fileName, String contentType) {}
+}
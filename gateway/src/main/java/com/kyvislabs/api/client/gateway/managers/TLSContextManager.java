@@ -0,0 +1,101 @@
+package com.kyvislabs.api.client.gateway.managers;
+
+import net.dongliu.requests.utils.SSLSocketFactories;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SSLContexts for the APIs' key stores, shared by content. Every API reload builds a new KeyStore from
+ * the same certificate, and contexts used to be cached by KeyStore identity, so the cache grew with every
+ * reload and every reload started over with full TLS handshakes, the client session cache (and with it
+ * session resumption) being per context. Keyed by a fingerprint of the certificates instead, a reload gets
+ * the context it had before.
+ * <p>
+ * The fingerprint is computed by whoever loads a KeyStore, once (see fingerprint()), and the context is
+ * looked up once per KeyStore and kept by the API's TLS settings, so none of this is on the request path.
+ * <p>
+ * The session cache size and timeout are part of the key, as they're set on the context. At most
+ * MAX_CONTEXTS are kept, least recently used evicted first.
+ */
+public class TLSContextManager {
+    private final Logger logger = LoggerFactory.getLogger("API.TLS.Manager");
+    private static final int MAX_CONTEXTS = 32;
+
+    private final Map<String, SSLContext> contexts = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SSLContext> eldest) {
+            return size() > MAX_CONTEXTS;
+        }
+    });
+
+    public void shutdown() {
+        logger.debug("Shutting down");
+        contexts.clear();
+    }
+
+    /**
+     * @param sessionCacheSize maximum number of sessions kept for resumption, 0 for no limit, -1 for the
+     *                         JVM default
+     * @param sessionTimeout   seconds a session can be resumed for, 0 for no limit, -1 for the JVM default
+     */
+    public SSLContext getContext(KeyStore keyStore, String fingerprint, int sessionCacheSize, int sessionTimeout) {
+        String key = (fingerprint != null ? fingerprint : fingerprint(keyStore)) + ":" + sessionCacheSize + ":" + sessionTimeout;
+        synchronized (contexts) {
+            SSLContext context = contexts.get(key);
+            if (context == null) {
+                logger.debug("Creating TLS context " + key);
+                context = SSLSocketFactories.getCustomTrustSSLContext(keyStore);
+                SSLSessionContext sessionContext = context.getClientSessionContext();
+                if (sessionCacheSize >= 0) {
+                    sessionContext.setSessionCacheSize(sessionCacheSize);
+                }
+                if (sessionTimeout >= 0) {
+                    sessionContext.setSessionTimeout(sessionTimeout);
+                }
+                contexts.put(key, context);
+            }
+            return context;
+        }
+    }
+
+    /**
+     * SHA-256 over every entry's alias and certificate chain. Keys aren't read: a key entry's key is the
+     * one its certificate was issued for, and reading it means decrypting it - which, with a password the
+     * store wasn't protected with (the gateway's ssl.pfx), is a failing PBE decrypt on every call.
+     */
+    public static String fingerprint(KeyStore keyStore) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            List<String> aliases = new ArrayList<>(Collections.list(keyStore.aliases()));
+            Collections.sort(aliases);
+            for (String alias : aliases) {
+                digest.update(alias.getBytes());
+                Certificate[] chain = keyStore.getCertificateChain(alias);
+                if (chain == null && keyStore.getCertificate(alias) != null) {
+                    chain = new Certificate[]{keyStore.getCertificate(alias)};
+                }
+                if (chain != null) {
+                    for (Certificate certificate : chain) {
+                        digest.update(certificate.getEncoded());
+                    }
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (Exception ex) {
+            // Can't tell stores apart - fall back to identity, as before
+            return "identity-" + System.identityHashCode(keyStore);
+        }
+    }
+}
@@ -25,6 +25,8 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
@@ -44,6 +46,15 @@ public class TagManager {
     // always "yes" - a real bottleneck for functions on short poll intervals with many tags.
     private final Set<String> knownTagPaths = ConcurrentHashMap.newKeySet();
 
+    // The batch, if any, collecting the current thread's tagUpdate() calls - see TagWriteBatch
+    private final ThreadLocal<TagWriteBatch> currentBatch = new ThreadLocal<>();
+    private static final String PROVIDER_PREFIX = String.format("[%s]", PROVIDER_NAME);
+
+    // Last value written to each path by tagUpdateIfChanged(). Any other update of the path drops it, so
+    // a value only counts as unchanged while nothing but delta writes have touched the tag. Like
+    // knownTagPaths, a tag deleted by hand isn't noticed - it comes back with its next changed value.
+    private final Map<String, QualifiedValue> lastWritten = new ConcurrentHashMap<>();
+
     public void init(GatewayContext gatewayContext) {
         this.gatewayContext = gatewayContext;
     }
@@ -60,9 +71,8 @@ public class TagManager {
     }
 
     public static String fixTagPath(String tagPath) {
-        String tagProvider = String.format("[%s]", TagManager.PROVIDER_NAME);
-        if (!tagPath.startsWith(tagProvider)) {
-            tagPath = tagProvider + tagPath;
+        if (!tagPath.startsWith(PROVIDER_PREFIX)) {
+            tagPath = PROVIDER_PREFIX + tagPath;
         }
 
         tagPath = sanitize(tagPath);
@@ -71,7 +81,7 @@ public class TagManager {
     }
 
     public static String sanitize(String tagPath) {
-        tagPath = tagPath.replace(".", "_");
+        tagPath = tagPath.replace('.', '_');
         return tagPath;
     }
 
@@ -99,7 +109,12 @@ public class TagManager {
     public boolean tagIsNull(String tagPath) {
         try {
             tagPath = fixTagPath(tagPath);
-            QualifiedValue value = readTag(tagPath);
+            // A value still waiting in this thread's batch is newer than whatever the provider has
+            TagWriteBatch batch = currentBatch.get();
+            QualifiedValue value = batch == null ? null : batch.get(tagPath);
+            if (value == null) {
+                value = readTag(tagPath);
+            }
             logger.debug("Checking if tag is null '" + tagPath + "' with value '" + value.toString() + "'");
             if (value.getQuality().isGood() && value.getValue() == null) {
                 return true;
@@ -177,7 +192,112 @@ public class TagManager {
 
     public void tagUpdate(String tagPath, Object value, QualityCode qualityCode) {
         tagPath = fixTagPath(tagPath);
-        logger.debug("Updating tag '" + tagPath + "' to value '" + (value == null ? "null" : value.toString()) + "'");
+        if (!lastWritten.isEmpty()) {
+            lastWritten.remove(tagPath);
+        }
+        update(tagPath, value, qualityCode);
+    }
+
+    public boolean tagUpdateIfChanged(String tagPath, Object value) {
+        return tagUpdateIfChanged(tagPath, value, QualityCode.Good);
+    }
+
+    /**
+     * tagUpdate(), skipped if this is the value and quality the path was last written with by this method.
+     * Every update goes on to the tag's history, alarms and subscribers, so for large responses polled
+     * often where most leaves don't change, this is most of the load the tag system sees from a run.
+     *
+     * @return whether the update was made
+     */
+    public boolean tagUpdateIfChanged(String tagPath, Object value, QualityCode qualityCode) {
+        tagPath = fixTagPath(tagPath);
+        QualifiedValue previous = lastWritten.put(tagPath, new BasicQualifiedValue(value, qualityCode));
+        if (previous != null && previous.getQuality().getCode() == qualityCode.getCode() && Objects.equals(previous.getValue(), value)) {
+            return false;
+        }
+        update(tagPath, value, qualityCode);
+        return true;
+    }
+
+    private void update(String tagPath, Object value, QualityCode qualityCode) {
+        TagWriteBatch batch = currentBatch.get();
+        if (batch != null) {
+            batch.put(tagPath, value, qualityCode);
+        } else {
+            write(tagPath, value, qualityCode);
+        }
+    }
+
+    /**
+     * Start collecting this thread's tagUpdate() calls until the returned batch is closed. If the thread
+     * already has a batch open (a function run from inside another one's actions) it is joined instead,
+     * so the outer run's later updates can't be overwritten by older ones flushed in between.
+     */
+    public TagWriteBatch beginBatch() {
+        TagWriteBatch batch = currentBatch.get();
+        if (batch == null) {
+            batch = new TagWriteBatch(this, true);
+            currentBatch.set(batch);
+        }
+        batch.open();
+        return batch;
+    }
+
+    /**
+     * A batch that isn't bound to any thread, for runs that move between threads. See TagWriteBatch.call().
+     */
+    public TagWriteBatch newBatch() {
+        return new TagWriteBatch(this, false);
+    }
+
+    TagWriteBatch bind(TagWriteBatch batch) {
+        TagWriteBatch previous = currentBatch.get();
+        if (batch == null) {
+            currentBatch.remove();
+        } else {
+            currentBatch.set(batch);
+        }
+        return previous;
+    }
+
+    void updateValues(Map<String, QualifiedValue> values) {
+        logger.debug("Flushing {} tag updates", values.size());
+        // ManagedTagProvider has no multi-tag update, but each path is written once no matter how many
+        // times the run updated it. A path that fails doesn't stop the rest from being written; write()
+        // drops it from lastWritten so the next delta write retries it, and the first failure is thrown
+        // once all of them have been tried.
+        RuntimeException failure = null;
+        for (Map.Entry<String, QualifiedValue> entry : values.entrySet()) {
+            try {
+                write(entry.getKey(), entry.getValue().getValue(), entry.getValue().getQuality());
+            } catch (RuntimeException ex) {
+                logger.warn("Error updating tag '" + entry.getKey() + "'", ex);
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void write(String tagPath, Object value, QualityCode qualityCode) {
+        try {
+            updateValue(tagPath, value, qualityCode);
+        } catch (RuntimeException ex) {
+            // Not written after all, so the next delta write of it mustn't be skipped
+            lastWritten.remove(tagPath);
+            throw ex;
+        }
+    }
+
+    protected void updateValue(String tagPath, Object value, QualityCode qualityCode) {
+        if (logger.isDebugEnabled()) {
+            logger.debug("Updating tag '" + tagPath + "' to value '" + (value == null ? "null" : value.toString()) + "'");
+        }
         managedTagProvider.updateValue(tagPath, value, qualityCode);
     }
 
@@ -187,6 +307,7 @@ public class TagManager {
             logger.debug("Removing tag '" + tagPath + "'");
             managedTagProvider.removeTag(tagPath);
             knownTagPaths.remove(tagPath);
+            lastWritten.remove(tagPath);
         }
     }
 
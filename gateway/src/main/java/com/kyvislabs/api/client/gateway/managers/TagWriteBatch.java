@@ -0,0 +1,88 @@
+package com.kyvislabs.api.client.gateway.managers;
+
+import com.inductiveautomation.ignition.common.model.values.BasicQualifiedValue;
+import com.inductiveautomation.ignition.common.model.values.QualifiedValue;
+import com.inductiveautomation.ignition.common.model.values.QualityCode;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Tag value updates collected during one function run and written out together at the end of it.
+ * A run used to go to the tag provider once per TagManager.tagUpdate() call - a dozen Status tags, some
+ * of them (State, Status, Response) more than once, plus one per JSON leaf for tag actions. Only the last
+ * value of each path is kept, so every tag is written once per run, in the order it was first updated.
+ * <p>
+ * Opened with TagManager.beginBatch() for a run on a single thread, or TagManager.newBatch() for one
+ * that moves between threads (the async pipeline), where each stage runs inside call(). While a batch is
+ * bound to a thread, TagManager reads its pending values back (see TagManager.tagIsNull()).
+ */
+public class TagWriteBatch implements AutoCloseable {
+    private final TagManager tagManager;
+    // Opened by beginBatch() rather than newBatch(), so closing it ends it
+    private final boolean threadBound;
+    private final Map<String, QualifiedValue> values = new LinkedHashMap<>();
+    private int depth;
+
+    TagWriteBatch(TagManager tagManager, boolean threadBound) {
+        this.tagManager = tagManager;
+        this.threadBound = threadBound;
+    }
+
+    synchronized void put(String tagPath, Object value, QualityCode qualityCode) {
+        values.put(tagPath, new BasicQualifiedValue(value, qualityCode));
+    }
+
+    synchronized QualifiedValue get(String tagPath) {
+        return values.get(tagPath);
+    }
+
+    synchronized void open() {
+        depth++;
+    }
+
+    /**
+     * Run callable with this batch collecting the current thread's tag updates, then go back to whatever
+     * the thread was collecting into before.
+     */
+    public <T> T call(Callable<T> callable) throws Exception {
+        TagWriteBatch previous = tagManager.bind(this);
+        try {
+            return callable.call();
+        } finally {
+            tagManager.bind(previous);
+        }
+    }
+
+    /**
+     * Write out everything collected so far.
+     */
+    public void flush() {
+        Map<String, QualifiedValue> pending;
+        synchronized (this) {
+            if (values.isEmpty()) {
+                return;
+            }
+            pending = new LinkedHashMap<>(values);
+            values.clear();
+        }
+        tagManager.updateValues(pending);
+    }
+
+    /**
+     * End a batch opened with TagManager.beginBatch(). Nested batches on the same thread are one and the
+     * same, so only closing the outermost one unbinds and flushes it; one that joined a newBatch() bound
+     * with call() leaves it to its owner.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (--depth > 0 || !threadBound) {
+                return;
+            }
+        }
+        tagManager.bind(null);
+        flush();
+    }
+}
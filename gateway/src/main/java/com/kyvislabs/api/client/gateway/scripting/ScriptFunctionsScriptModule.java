@@ -11,6 +11,8 @@ import org.python.core.PyDictionary;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.CompletableFuture;
+
 public class ScriptFunctionsScriptModule implements APIsInterface {
     private final Logger logger = LoggerFactory.getLogger("API.ScriptModule");
     private final GatewayContext gatewayContext;
@@ -23,8 +25,16 @@ public class ScriptFunctionsScriptModule implements APIsInterface {
     public void invokeFunction(String apiName, String functionName, PyDictionary functionParameters) throws APIException {
         logger.debug("invokeFunction called: api=" + apiName + ", function=" + functionName);
         API api = APIManager.get().getAPI(apiName);
-        Function function = api.getFunctions().getFunction(functionName);
-        function.executeAsync(new PyDictionaryVariableStore(functionParameters));
+        invokeFunctionAsync(api.getFunctions().getFunction(functionName), functionParameters);
+    }
+
+    /**
+     * The future for a scripted function call. invokeFunction() itself has to stay void - it is also
+     * the RPC interface client/designer scopes call through, which can't carry a future - so gateway
+     * code that wants to compose on the result calls this instead.
+     */
+    public CompletableFuture<Integer> invokeFunctionAsync(Function function, PyDictionary functionParameters) {
+        return function.executeAsync(new PyDictionaryVariableStore(functionParameters));
     }
 
     @Override
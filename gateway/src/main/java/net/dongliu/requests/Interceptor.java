@@ -3,6 +3,9 @@ package net.dongliu.requests;
 
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * Http request Interceptor
  *
@@ -20,6 +23,17 @@ public interface Interceptor {
     @NonNull
     RawResponse intercept(InvocationTarget target, Request request);
 
+    /**
+     * Intercept an asynchronous request. By default the blocking {@link #intercept} runs on the executor;
+     * implementations that wait (for a slot, a delay) should override this so no executor thread does.
+     *
+     * @param executor the executor the request was sent with, for any work of the interceptor's own
+     */
+    @NonNull
+    default CompletableFuture<RawResponse> interceptAsync(AsyncInvocationTarget target, Request request, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> intercept(target, request), executor);
+    }
+
 
     interface InvocationTarget {
         /**
@@ -28,4 +42,12 @@ public interface Interceptor {
         @NonNull
         RawResponse proceed(Request request);
     }
+
+    interface AsyncInvocationTarget extends InvocationTarget {
+        /**
+         * Process the request with the remaining interceptors and the executor, asynchronously
+         */
+        @NonNull
+        CompletableFuture<RawResponse> proceedAsync(Request request);
+    }
 }
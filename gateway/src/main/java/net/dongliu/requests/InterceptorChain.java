@@ -3,17 +3,28 @@ package net.dongliu.requests;
 import net.dongliu.requests.executor.HttpExecutor;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * @author Liu Dong
  */
-class InterceptorChain implements Interceptor.InvocationTarget {
+class InterceptorChain implements Interceptor.AsyncInvocationTarget {
     private final List<? extends Interceptor> interceptorList;
     private final HttpExecutor httpExecutor;
+    private final Executor executor;
 
     public InterceptorChain(List<? extends Interceptor> interceptorList, HttpExecutor httpExecutor) {
+        this(interceptorList, httpExecutor, null);
+    }
+
+    /**
+     * @param executor the executor of an asynchronous request, null for blocking ones
+     */
+    public InterceptorChain(List<? extends Interceptor> interceptorList, HttpExecutor httpExecutor, Executor executor) {
         this.interceptorList = interceptorList;
         this.httpExecutor = httpExecutor;
+        this.executor = executor;
     }
 
     @Override
@@ -22,8 +33,18 @@ class InterceptorChain implements Interceptor.InvocationTarget {
             return httpExecutor.proceed(request);
         }
         Interceptor interceptor = interceptorList.get(0);
-        InterceptorChain chain = new InterceptorChain(interceptorList.subList(1, interceptorList.size()), httpExecutor);
+        InterceptorChain chain = new InterceptorChain(interceptorList.subList(1, interceptorList.size()), httpExecutor, executor);
         return interceptor.intercept(chain, request);
     }
 
+    @Override
+    public CompletableFuture<RawResponse> proceedAsync(Request request) {
+        if (interceptorList.isEmpty()) {
+            return httpExecutor.proceedAsync(request, executor);
+        }
+        Interceptor interceptor = interceptorList.get(0);
+        InterceptorChain chain = new InterceptorChain(interceptorList.subList(1, interceptorList.size()), httpExecutor, executor);
+        return interceptor.interceptAsync(chain, request, executor);
+    }
+
 }
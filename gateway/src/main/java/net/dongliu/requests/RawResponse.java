@@ -13,10 +13,15 @@ import org.checkerframework.checker.nullness.qual.Nullable;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
@@ -73,6 +78,28 @@ public class RawResponse extends AbstractResponse implements AutoCloseable {
         }
     }
 
+    /**
+     * Return a new RawResponse instance that runs the action once its body is closed, whether read to the
+     * end or closed early - for resources held for as long as the response is in use.
+     */
+    public RawResponse onClose(Runnable action) {
+        InputStream closing = new FilterInputStream(body) {
+            private final AtomicBoolean closed = new AtomicBoolean();
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (closed.compareAndSet(false, true)) {
+                        action.run();
+                    }
+                }
+            }
+        };
+        return new RawResponse(method, url, statusCode, statusLine, cookies, headers, closing, charset, decompress);
+    }
+
     /**
      * Return a new RawResponse instance with response body charset set.
      * If charset is not set(which is default), will try to get charset from response headers; If failed, use UTF-8.
@@ -245,6 +272,29 @@ public class RawResponse extends AbstractResponse implements AutoCloseable {
     }
 
 
+    /**
+     * Write response body to file through a FileChannel, without copying it through a heap buffer of
+     * its own. Creates or truncates the file.
+     *
+     * @return the number of bytes written
+     */
+    public long transferToFile(Path path) {
+        try (ReadableByteChannel source = Channels.newChannel(body());
+             FileChannel target = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long count;
+            // A blocking source only transfers 0 bytes at end of stream
+            while ((count = target.transferFrom(source, position, 1 << 20)) > 0) {
+                position += count;
+            }
+            return position;
+        } catch (IOException e) {
+            throw new RequestsException(e);
+        } finally {
+            close();
+        }
+    }
+
     /**
      * Write response body to file
      */
@@ -1,6 +1,7 @@
 package net.dongliu.requests;
 
 import net.dongliu.requests.body.RequestBody;
+import net.dongliu.requests.executor.HttpExecutor;
 import net.dongliu.requests.executor.SessionContext;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
@@ -9,7 +10,10 @@ import java.net.Proxy;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.security.KeyStore;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
@@ -40,11 +44,20 @@ public class Request implements Serializable {
     @Nullable
     private final KeyStore keyStore;
     @Nullable
+    private final transient SSLContext sslContext;
+    @Nullable
+    private final transient SSLSocketFactory sslSocketFactory;
+    @Nullable
     private final BasicAuth basicAuth;
     @Nullable
     private final SessionContext sessionContext;
     private final URL url;
     private final boolean keepAlive;
+    @Nullable
+    private final transient HttpExecutor executor;
+    // Kept so the requests following a redirect go through the same interceptors
+    private final transient List<? extends Interceptor> interceptors;
+    private final boolean redirected;
 
     Request(RequestBuilder builder) {
         method = builder.method;
@@ -61,9 +74,14 @@ public class Request implements Serializable {
         acceptCompress = builder.acceptCompress;
         verify = builder.verify;
         keyStore = builder.keyStore;
+        sslContext = builder.sslContext;
+        sslSocketFactory = builder.sslSocketFactory;
         basicAuth = builder.basicAuth;
         sessionContext = builder.sessionContext;
         keepAlive = builder.keepAlive;
+        executor = builder.executor;
+        interceptors = builder.interceptors;
+        redirected = builder.redirected;
         this.url = builder.url;
         this.params = builder.params;
     }
@@ -296,6 +314,16 @@ public class Request implements Serializable {
         return keyStore;
     }
 
+    @Nullable
+    public SSLContext sslContext() {
+        return sslContext;
+    }
+
+    @Nullable
+    public SSLSocketFactory sslSocketFactory() {
+        return sslSocketFactory;
+    }
+
     public BasicAuth basicAuth() {
         return basicAuth;
     }
@@ -311,4 +339,23 @@ public class Request implements Serializable {
     public boolean keepAlive() {
         return keepAlive;
     }
+
+    /**
+     * The executor this request was built to be sent with, or null for the default one.
+     */
+    @Nullable
+    public HttpExecutor executor() {
+        return executor;
+    }
+
+    public List<? extends Interceptor> interceptors() {
+        return interceptors;
+    }
+
+    /**
+     * Whether this request follows a redirect of another, still in progress, request.
+     */
+    public boolean redirected() {
+        return redirected;
+    }
 }
@@ -16,7 +16,11 @@ import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Http Request builder
@@ -48,8 +52,15 @@ public final class RequestBuilder {
     boolean keepAlive = true;
     @Nullable
     KeyStore keyStore;
+    @Nullable
+    SSLContext sslContext;
+    @Nullable
+    SSLSocketFactory sslSocketFactory;
+    @Nullable
+    HttpExecutor executor;
 
-    private List<? extends Interceptor> interceptors = Collections.emptyList();
+    List<? extends Interceptor> interceptors = Collections.emptyList();
+    boolean redirected;
 
     RequestBuilder() {
     }
@@ -72,6 +83,11 @@ public final class RequestBuilder {
         sessionContext = request.sessionContext();
         keepAlive = request.keepAlive();
         keyStore = request.keyStore();
+        sslContext = request.sslContext();
+        sslSocketFactory = request.sslSocketFactory();
+        executor = request.executor();
+        interceptors = request.interceptors();
+        redirected = request.redirected();
         this.url = request.url();
         this.params = request.params();
     }
@@ -371,6 +387,33 @@ public final class RequestBuilder {
         return this;
     }
 
+    /**
+     * Use a prepared SSLContext (and a socket factory from it) for ssl connections, instead of building one
+     * from the keyStore. Takes precedence over the keyStore, but not over verify(false). Both must be the same
+     * objects from request to request for connections to be reused.
+     */
+    public RequestBuilder sslContext(SSLContext sslContext, SSLSocketFactory sslSocketFactory) {
+        this.sslContext = sslContext;
+        this.sslSocketFactory = sslSocketFactory;
+        return this;
+    }
+
+    /**
+     * Mark the request as one following a redirect of another, still in progress, request.
+     */
+    public RequestBuilder redirected(boolean redirected) {
+        this.redirected = redirected;
+        return this;
+    }
+
+    /**
+     * Set the executor used to send this request. Default is the executor from {@link RequestExecutorFactory}.
+     */
+    public RequestBuilder executor(@Nullable HttpExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
     /**
      * If reuse http connection. default true
      */
@@ -404,11 +447,26 @@ public final class RequestBuilder {
      */
     public RawResponse send() {
         Request request = build();
-        RequestExecutorFactory factory = RequestExecutorFactory.getInstance();
-        HttpExecutor executor = factory.getHttpExecutor();
+        HttpExecutor executor = this.executor;
+        if (executor == null) {
+            executor = RequestExecutorFactory.getInstance().getHttpExecutor();
+        }
         return new InterceptorChain(interceptors, executor).proceed(request);
     }
 
+    /**
+     * build http request, and send out asynchronously. Interceptors run through
+     * {@link Interceptor#interceptAsync}, which by default runs the blocking one on the given executor.
+     */
+    public CompletableFuture<RawResponse> sendAsync(Executor executor) {
+        Request request = build();
+        HttpExecutor httpExecutor = this.executor;
+        if (httpExecutor == null) {
+            httpExecutor = RequestExecutorFactory.getInstance().getHttpExecutor();
+        }
+        return new InterceptorChain(interceptors, httpExecutor, executor).proceedAsync(request);
+    }
+
     /**
      * Set both connect timeout and socks timeout in milliseconds
      */
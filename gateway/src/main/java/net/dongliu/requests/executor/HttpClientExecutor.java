@@ -0,0 +1,348 @@
+package net.dongliu.requests.executor;
+
+import net.dongliu.commons.io.InputStreams;
+import net.dongliu.requests.*;
+import net.dongliu.requests.body.RequestBody;
+import net.dongliu.requests.exception.RequestsException;
+import net.dongliu.requests.utils.Cookies;
+import net.dongliu.requests.utils.SSLSocketFactories;
+import net.dongliu.requests.utils.URLUtils;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import javax.net.ssl.SSLContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+import static net.dongliu.requests.HttpHeaders.*;
+
+/**
+ * Execute http request with java.net.http.HttpClient.
+ * <p>
+ * Unlike {@link URLConnectionExecutor}, which shares the JVM-wide keep-alive cache, each instance owns its
+ * clients and so their connection pools - share one instance between all requests to the same hosts
+ * instead of creating one per request. HttpClient fixes TLS, proxy and connect timeout settings when it is
+ * built, so one client is kept per distinct combination of those request settings (normally just one).
+ * <p>
+ * Requests through a SOCKS proxy, which HttpClient does not support, are sent with the url connection
+ * executor instead.
+ */
+public class HttpClientExecutor implements HttpExecutor {
+
+    // HttpClient manages these itself and rejects requests that set them
+    private static final Set<String> restrictedHeaders = Set.of("connection", "content-length", "expect",
+            "host", "upgrade");
+
+    private final HttpClient.Version version;
+    private final ConcurrentMap<ClientKey, HttpClient> clients = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ClientKey, Long> lastUsed = new ConcurrentHashMap<>();
+
+    public HttpClientExecutor() {
+        this(true);
+    }
+
+    /**
+     * @param http2 if HTTP/2 should be negotiated with servers that support it. If false, always use HTTP/1.1
+     */
+    public HttpClientExecutor(boolean http2) {
+        this.version = http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1;
+    }
+
+    @Override
+    public RawResponse proceed(Request request) {
+        if (isSocks(request)) {
+            return RequestExecutorFactory.getInstance().getHttpExecutor().proceed(request);
+        }
+        Exchange exchange = new Exchange(request);
+        HttpResponse<InputStream> response;
+        try {
+            response = getClient(request).send(exchange.httpRequest, HttpResponse.BodyHandlers.ofInputStream());
+        } catch (IOException e) {
+            throw new RequestsException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestsException(e);
+        }
+        return Redirects.follow(request, exchange.getResponse(response));
+    }
+
+    /**
+     * Send without blocking the calling thread. The returned future completes once the response headers
+     * arrive; the body is streamed as it is read.
+     */
+    @Override
+    public CompletableFuture<RawResponse> proceedAsync(Request request, Executor executor) {
+        if (isSocks(request)) {
+            return RequestExecutorFactory.getInstance().getHttpExecutor().proceedAsync(request, executor);
+        }
+        Exchange exchange;
+        try {
+            exchange = new Exchange(request);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // Continue on the caller's executor rather than the client's internal threads. Following a
+        // redirect sends the next request blocking, same as proceed().
+        return getClient(request).sendAsync(exchange.httpRequest, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApplyAsync(response -> Redirects.follow(request, exchange.getResponse(response)), executor);
+    }
+
+    private static boolean isSocks(Request request) {
+        @Nullable Proxy proxy = request.proxy();
+        return proxy != null && proxy.type() == Proxy.Type.SOCKS;
+    }
+
+    /**
+     * Drop all clients, and with them their pooled connections once in-flight requests complete.
+     */
+    public void close() {
+        clients.clear();
+        lastUsed.clear();
+    }
+
+    /**
+     * Drop the clients not used for idleMillis, and with them their pooled connections - by then the server
+     * has likely closed those on its side, and the next request would find out the hard way.
+     *
+     * @return the number of clients dropped
+     */
+    public int evictIdle(long idleMillis) {
+        long now = System.currentTimeMillis();
+        int evicted = 0;
+        for (Map.Entry<ClientKey, Long> entry : lastUsed.entrySet()) {
+            if (now - entry.getValue() >= idleMillis && lastUsed.remove(entry.getKey(), entry.getValue())) {
+                clients.remove(entry.getKey());
+                evicted++;
+            }
+        }
+        return evicted;
+    }
+
+    private HttpClient getClient(Request request) {
+        // The key store only matters without a context - with one, a reloaded KeyStore getting the same context
+        // keeps its client
+        KeyStore keyStore = request.sslContext() == null ? request.keyStore() : null;
+        ClientKey key = new ClientKey(request.verify(), keyStore, request.sslContext(), request.proxy(), request.connectTimeout());
+        lastUsed.put(key, System.currentTimeMillis());
+        return clients.computeIfAbsent(key, this::newClient);
+    }
+
+    private HttpClient newClient(ClientKey key) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(version)
+                // Redirects are followed by Redirects so cookies are handled on every hop
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (key.connectTimeout > 0) {
+            builder.connectTimeout(Duration.ofMillis(key.connectTimeout));
+        }
+
+        SSLContext sslContext = null;
+        if (!key.verify) {
+            sslContext = SSLSocketFactories.getTrustAllSSLContext();
+        } else if (key.sslContext != null) {
+            sslContext = key.sslContext;
+        } else if (key.keyStore != null) {
+            sslContext = SSLSocketFactories.getCustomTrustSSLContext(key.keyStore);
+        }
+        if (sslContext != null) {
+            builder.sslContext(sslContext);
+        }
+
+        if (key.proxy != null && key.proxy.type() == Proxy.Type.HTTP) {
+            builder.proxy(ProxySelector.of((InetSocketAddress) key.proxy.address()));
+        } else {
+            builder.proxy(HttpClient.Builder.NO_PROXY);
+        }
+        return builder.build();
+    }
+
+    /**
+     * One request/response round trip: the HttpRequest built from a Request, and the state needed to wrap
+     * the response.
+     */
+    private static class Exchange {
+        private final Request request;
+        private final URL url;
+        private final CookieJar cookieJar;
+        private final HttpRequest httpRequest;
+
+        Exchange(Request request) {
+            this.request = request;
+            Charset charset = request.charset();
+            this.url = URLUtils.joinUrl(request.url(), URLUtils.toStringParameters(request.params()), charset);
+            @Nullable RequestBody<?> body = request.body();
+            if (request.sessionContext() != null) {
+                cookieJar = request.sessionContext().cookieJar();
+            } else {
+                cookieJar = NopCookieJar.instance;
+            }
+
+            HttpRequest.Builder builder;
+            try {
+                builder = HttpRequest.newBuilder(url.toURI());
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                throw new RequestsException(e);
+            }
+            // HttpClient has no read timeout between packets, so the socks timeout bounds the wait for the
+            // response headers instead
+            if (request.socksTimeout() > 0) {
+                builder.timeout(Duration.ofMillis(request.socksTimeout()));
+            }
+
+            if (body != null) {
+                String contentType = body.contentType();
+                if (contentType != null) {
+                    if (body.includeCharset()) {
+                        contentType += "; charset=" + request.charset().name().toLowerCase();
+                    }
+                    builder.setHeader(NAME_CONTENT_TYPE, contentType);
+                }
+                builder.method(request.method(), HttpRequest.BodyPublishers.ofByteArray(toBytes(body, charset)));
+            } else {
+                builder.method(request.method(), HttpRequest.BodyPublishers.noBody());
+            }
+
+            // headers
+            builder.setHeader(NAME_ACCEPT, "*/*");
+
+            if (!request.userAgent().isEmpty()) {
+                builder.setHeader(NAME_USER_AGENT, request.userAgent());
+            }
+            if (request.acceptCompress()) {
+                builder.setHeader(NAME_ACCEPT_ENCODING, "gzip, deflate");
+            }
+
+            if (request.basicAuth() != null) {
+                builder.setHeader(NAME_AUTHORIZATION, request.basicAuth().encode());
+            }
+
+            // set cookies
+            Collection<Cookie> sessionCookies = cookieJar.getCookies(url);
+            if (!request.cookies().isEmpty() || !sessionCookies.isEmpty()) {
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, ?> entry : request.cookies()) {
+                    sb.append(entry.getKey()).append("=").append(String.valueOf(entry.getValue())).append("; ");
+                }
+                for (Cookie cookie : sessionCookies) {
+                    sb.append(cookie.name()).append("=").append(cookie.value()).append("; ");
+                }
+                if (sb.length() > 2) {
+                    sb.setLength(sb.length() - 2);
+                    builder.setHeader(NAME_COOKIE, sb.toString());
+                }
+            }
+
+            // set user custom headers. Keep-alive can not be turned off per request, the pool decides.
+            for (Map.Entry<String, ?> header : request.headers()) {
+                if (!restrictedHeaders.contains(header.getKey().toLowerCase())) {
+                    builder.setHeader(header.getKey(), String.valueOf(header.getValue()));
+                }
+            }
+            this.httpRequest = builder.build();
+        }
+
+        /**
+         * Wrap response, deal with headers and cookies
+         */
+        RawResponse getResponse(HttpResponse<InputStream> response) {
+            String host = url.getHost().toLowerCase();
+
+            List<Header> headerList = new ArrayList<>();
+            List<Cookie> cookies = new ArrayList<>();
+            for (Map.Entry<String, List<String>> entry : response.headers().map().entrySet()) {
+                String key = entry.getKey();
+                // HTTP/2 pseudo headers such as :status
+                if (key.startsWith(":")) {
+                    continue;
+                }
+                for (String value : entry.getValue()) {
+                    headerList.add(new Header(key, value));
+                    if (key.equalsIgnoreCase(NAME_SET_COOKIE)) {
+                        Cookie c = Cookies.parseCookie(value, host, Cookies.calculatePath(url.getPath()));
+                        if (c != null) {
+                            cookies.add(c);
+                        }
+                    }
+                }
+            }
+            Headers headers = new Headers(headerList);
+
+            InputStream input = response.body();
+            if (input == null) {
+                input = InputStreams.empty();
+            }
+
+            String statusLine = (response.version() == HttpClient.Version.HTTP_2 ? "HTTP/2 " : "HTTP/1.1 ") + response.statusCode();
+
+            // update session
+            cookieJar.storeCookies(cookies);
+            return new RawResponse(request.method(), url.toExternalForm(), response.statusCode(), statusLine, cookies,
+                    headers, input, null, true);
+        }
+    }
+
+    private static byte[] toBytes(RequestBody<?> body, Charset charset) {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        try {
+            body.writeBody(os, charset);
+        } catch (IOException e) {
+            throw new RequestsException(e);
+        }
+        return os.toByteArray();
+    }
+
+    private static class ClientKey {
+        private final boolean verify;
+        @Nullable
+        private final KeyStore keyStore;
+        @Nullable
+        private final SSLContext sslContext;
+        @Nullable
+        private final Proxy proxy;
+        private final int connectTimeout;
+
+        ClientKey(boolean verify, @Nullable KeyStore keyStore, @Nullable SSLContext sslContext, @Nullable Proxy proxy, int connectTimeout) {
+            this.verify = verify;
+            this.keyStore = keyStore;
+            this.sslContext = sslContext;
+            this.proxy = proxy;
+            this.connectTimeout = connectTimeout;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            ClientKey clientKey = (ClientKey) o;
+
+            if (verify != clientKey.verify) return false;
+            if (connectTimeout != clientKey.connectTimeout) return false;
+            if (keyStore != clientKey.keyStore) return false;
+            if (sslContext != clientKey.sslContext) return false;
+            return Objects.equals(proxy, clientKey.proxy);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (verify ? 1 : 0);
+            result = 31 * result + System.identityHashCode(keyStore);
+            result = 31 * result + System.identityHashCode(sslContext);
+            result = 31 * result + Objects.hashCode(proxy);
+            result = 31 * result + connectTimeout;
+            return result;
+        }
+    }
+}
@@ -5,6 +5,9 @@ import net.dongliu.requests.RawResponse;
 import net.dongliu.requests.Request;
 import org.checkerframework.checker.nullness.qual.NonNull;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
 /**
  * Http executor
  *
@@ -16,4 +19,12 @@ public interface HttpExecutor extends Interceptor.InvocationTarget {
      */
     @NonNull
     RawResponse proceed(Request request);
+
+    /**
+     * Process the request asynchronously. Executors without non-blocking I/O run {@link #proceed(Request)} on
+     * the given executor, which is also used for any work after the response arrives.
+     */
+    default CompletableFuture<RawResponse> proceedAsync(Request request, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> proceed(request), executor);
+    }
 }
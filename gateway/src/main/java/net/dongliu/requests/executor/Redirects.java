@@ -0,0 +1,68 @@
+package net.dongliu.requests.executor;
+
+import net.dongliu.requests.Methods;
+import net.dongliu.requests.RawResponse;
+import net.dongliu.requests.Request;
+import net.dongliu.requests.RequestBuilder;
+import net.dongliu.requests.body.RequestBody;
+import net.dongliu.requests.exception.RequestsException;
+import net.dongliu.requests.exception.TooManyRedirectsException;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+import static net.dongliu.requests.HttpHeaders.NAME_LOCATION;
+import static net.dongliu.requests.StatusCodes.*;
+
+/**
+ * Redirect handling shared by the executors. Redirects are followed manually rather than by the underlying
+ * client so session cookies are stored and sent on every hop.
+ */
+class Redirects {
+
+    static RawResponse follow(Request request, RawResponse response) {
+        int statusCode = response.statusCode();
+        if (!request.followRedirect() || !isRedirect(statusCode)) {
+            return response;
+        }
+
+        // handle redirect
+        response.discardBody();
+        int redirectTimes = 0;
+        final int maxRedirectTimes = request.maxRedirectCount();
+        URL redirectUrl = request.url();
+        while (redirectTimes++ < maxRedirectTimes) {
+            String location = response.getHeader(NAME_LOCATION);
+            if (location == null) {
+                throw new RequestsException("Redirect location not found");
+            }
+            try {
+                redirectUrl = new URL(redirectUrl, location);
+            } catch (MalformedURLException e) {
+                throw new RequestsException("Resolve redirect url error, location: " + location, e);
+            }
+            String method = request.method();
+            RequestBody<?> body = request.body();
+            if (statusCode == MOVED_PERMANENTLY || statusCode == FOUND || statusCode == SEE_OTHER) {
+                // 301/302 change method to get, due to historical reason.
+                method = Methods.GET;
+                body = null;
+            }
+
+            // toBuilder() keeps the interceptors, so every hop is intercepted (e.g. paced) like the first
+            RequestBuilder builder = request.toBuilder().method(method).url(redirectUrl)
+                    .followRedirect(false).redirected(true).body(body);
+            response = builder.send();
+            if (!isRedirect(response.statusCode())) {
+                return response;
+            }
+            response.discardBody();
+        }
+        throw new TooManyRedirectsException(maxRedirectTimes);
+    }
+
+    static boolean isRedirect(int status) {
+        return status == MULTIPLE_CHOICES || status == MOVED_PERMANENTLY || status == FOUND || status == SEE_OTHER
+                || status == TEMPORARY_REDIRECT || status == PERMANENT_REDIRECT;
+    }
+}
@@ -4,7 +4,6 @@ import net.dongliu.commons.io.InputStreams;
 import net.dongliu.requests.*;
 import net.dongliu.requests.body.RequestBody;
 import net.dongliu.requests.exception.RequestsException;
-import net.dongliu.requests.exception.TooManyRedirectsException;
 import net.dongliu.requests.utils.Cookies;
 import net.dongliu.requests.utils.NopHostnameVerifier;
 import net.dongliu.requests.utils.SSLSocketFactories;
@@ -24,7 +23,6 @@ import java.util.List;
 import java.util.Map;
 
 import static net.dongliu.requests.HttpHeaders.*;
-import static net.dongliu.requests.StatusCodes.*;
 
 /**
  * Execute http request with url connection
@@ -43,53 +41,9 @@ class URLConnectionExecutor implements HttpExecutor {
 
     @Override
     public RawResponse proceed(Request request) {
-        RawResponse response = doRequest(request);
-
-        int statusCode = response.statusCode();
-        if (!request.followRedirect() || !isRedirect(statusCode)) {
-            return response;
-        }
-
-        // handle redirect
-        response.discardBody();
-        int redirectTimes = 0;
-        final int maxRedirectTimes = request.maxRedirectCount();
-        URL redirectUrl = request.url();
-        while (redirectTimes++ < maxRedirectTimes) {
-            String location = response.getHeader(NAME_LOCATION);
-            if (location == null) {
-                throw new RequestsException("Redirect location not found");
-            }
-            try {
-                redirectUrl = new URL(redirectUrl, location);
-            } catch (MalformedURLException e) {
-                throw new RequestsException("Resolve redirect url error, location: " + location, e);
-            }
-            String method = request.method();
-            RequestBody<?> body = request.body();
-            if (statusCode == MOVED_PERMANENTLY || statusCode == FOUND || statusCode == SEE_OTHER) {
-                // 301/302 change method to get, due to historical reason.
-                method = Methods.GET;
-                body = null;
-            }
-
-            RequestBuilder builder = request.toBuilder().method(method).url(redirectUrl)
-                    .followRedirect(false).body(body);
-            response = builder.send();
-            if (!isRedirect(response.statusCode())) {
-                return response;
-            }
-            response.discardBody();
-        }
-        throw new TooManyRedirectsException(maxRedirectTimes);
+        return Redirects.follow(request, doRequest(request));
     }
 
-    private static boolean isRedirect(int status) {
-        return status == MULTIPLE_CHOICES || status == MOVED_PERMANENTLY || status == FOUND || status == SEE_OTHER
-                || status == TEMPORARY_REDIRECT || status == PERMANENT_REDIRECT;
-    }
-
-
     private RawResponse doRequest(Request request) {
         Charset charset = request.charset();
         URL url = URLUtils.joinUrl(request.url(), URLUtils.toStringParameters(request.params()), charset);
@@ -123,6 +77,8 @@ class URLConnectionExecutor implements HttpExecutor {
                 httpsConn.setSSLSocketFactory(ssf);
                 // do not verify host of certificate
                 httpsConn.setHostnameVerifier(NopHostnameVerifier.getInstance());
+            } else if (request.sslSocketFactory() != null) {
+                httpsConn.setSSLSocketFactory(request.sslSocketFactory());
             } else if (request.keyStore() != null) {
                 SSLSocketFactory ssf = SSLSocketFactories.getCustomTrustSSLSocketFactory(request.keyStore());
                 httpsConn.setSSLSocketFactory(ssf);
@@ -1,5 +1,5 @@
 /**
  * This package is only for internal use.
- * Provide HttpExecutor by JDK HttpUrlConnection.
+ * Provide HttpExecutor by JDK HttpUrlConnection and java.net.http.HttpClient.
  */
 package net.dongliu.requests.executor;
\ No newline at end of file
@@ -4,11 +4,10 @@ import net.dongliu.requests.exception.RequestsException;
 import net.dongliu.requests.exception.TrustManagerLoadFailedException;
 
 import javax.net.ssl.*;
+import java.net.Socket;
 import java.security.*;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 /**
  * Utils method for ssl socket factory
@@ -19,9 +18,10 @@ public class SSLSocketFactories {
 
     // To reuse the connection, settings on the underlying socket must use the exact same objects.
 
-    private static final SSLSocketFactory sslSocketFactoryLazy = _getTrustAllSSLSocketFactory();
+    private static final SSLContext trustAllSSLContext = _getTrustAllSSLContext();
+    private static final SSLSocketFactory sslSocketFactoryLazy = trustAllSSLContext.getSocketFactory();
 
-    public static SSLSocketFactory _getTrustAllSSLSocketFactory() {
+    private static SSLContext _getTrustAllSSLContext() {
         TrustManager trustManager = new TrustAllTrustManager();
         SSLContext sslContext;
         try {
@@ -30,18 +30,26 @@ public class SSLSocketFactories {
         } catch (NoSuchAlgorithmException | KeyManagementException e) {
             throw new RequestsException(e);
         }
-
-        return sslContext.getSocketFactory();
+        return sslContext;
     }
 
+    public static SSLSocketFactory _getTrustAllSSLSocketFactory() {
+        return _getTrustAllSSLContext().getSocketFactory();
+    }
 
     public static SSLSocketFactory getTrustAllSSLSocketFactory() {
         return sslSocketFactoryLazy;
     }
 
-    private static final ConcurrentMap<KeyStore, SSLSocketFactory> map = new ConcurrentHashMap<>();
+    /**
+     * SSLContext that trusts every certificate and skips host name verification, for clients that take an
+     * SSLContext rather than a socket factory.
+     */
+    public static SSLContext getTrustAllSSLContext() {
+        return trustAllSSLContext;
+    }
 
-    private static SSLSocketFactory _getCustomSSLSocketFactory(KeyStore keyStore) {
+    private static SSLContext _getCustomSSLContext(KeyStore keyStore) {
         TrustManager trustManager = new CustomCertTrustManager(keyStore);
         SSLContext sslContext;
         try {
@@ -52,18 +60,31 @@ public class SSLSocketFactories {
         } catch (NoSuchAlgorithmException | KeyManagementException | KeyStoreException | UnrecoverableKeyException e) {
             throw new RequestsException(e);
         }
+        return sslContext;
+    }
 
-        return sslContext.getSocketFactory();
+    /**
+     * A new SSLContext trusting the keyStore's certificates and presenting its key. Not cached: keyed by
+     * KeyStore identity, a cache here grew with every reload of the same certificate. Callers sending many
+     * requests with the same key store keep the context themselves and set it on the request.
+     */
+    public static SSLContext getCustomTrustSSLContext(KeyStore keyStore) {
+        return _getCustomSSLContext(keyStore);
     }
 
+    /**
+     * Socket factory of a new context, see getCustomTrustSSLContext().
+     */
     public static SSLSocketFactory getCustomTrustSSLSocketFactory(KeyStore keyStore) {
-        if (!map.containsKey(keyStore)) {
-            map.put(keyStore, _getCustomSSLSocketFactory(keyStore));
-        }
-        return map.get(keyStore);
+        return getCustomTrustSSLContext(keyStore).getSocketFactory();
     }
 
-    static class TrustAllTrustManager implements X509TrustManager {
+    /**
+     * Extends X509ExtendedTrustManager rather than X509TrustManager: JSSE wraps a plain X509TrustManager and
+     * adds its own host name check, which clients without a pluggable HostnameVerifier (java.net.http) can
+     * not switch off.
+     */
+    static class TrustAllTrustManager extends X509ExtendedTrustManager {
         @Override
         public void checkClientTrusted(X509Certificate[] x509Certificates, String s) {
         }
@@ -72,6 +93,22 @@ public class SSLSocketFactories {
         public void checkServerTrusted(X509Certificate[] x509Certificates, String s) {
         }
 
+        @Override
+        public void checkClientTrusted(X509Certificate[] x509Certificates, String s, Socket socket) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] x509Certificates, String s, Socket socket) {
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] x509Certificates, String s, SSLEngine engine) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] x509Certificates, String s, SSLEngine engine) {
+        }
+
         @Override
         public X509Certificate[] getAcceptedIssuers() {
             return null;